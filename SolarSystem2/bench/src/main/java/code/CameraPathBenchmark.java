@@ -0,0 +1,57 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.*;
+
+//Fly-By Path Sampling: Code.evaluateCubicBezier & easeInOutCubic Over One Transition
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CameraPathBenchmark {
+    @Param({"1000"})
+    int samples;
+
+    private final Code.PathData path = new Code.PathData();
+    private final Vector3f dest = new Vector3f();
+
+    @Setup
+    public void setup() {
+        path.p0.set(0.0f, 0.0f, 8.0f);
+        path.p1.set(15.0f, 10.5f, 8.0f);
+        path.p2.set(40.0f, 10.5f, 4.0f);
+        path.p3.set(38.0f, 0.0f, 2.0f);
+    }
+
+    @Benchmark
+    public float bezier() {
+        float sum = 0.0f;
+        for (int i = 0; i < samples; i++) {
+            Code.evaluateCubicBezier(path, i / (float) (samples - 1), dest);
+            sum += dest.x + dest.y + dest.z;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float easedBezier() {
+        float sum = 0.0f;
+        for (int i = 0; i < samples; i++) {
+            Code.evaluateCubicBezier(path, Code.easeInOutCubic(i / (float) (samples - 1)), dest);
+            sum += dest.x + dest.y + dest.z;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float ease() {
+        float sum = 0.0f;
+        for (int i = 0; i < samples; i++) {
+            sum += Code.easeInOutCubic(i / (float) (samples - 1));
+        }
+        return sum;
+    }
+}
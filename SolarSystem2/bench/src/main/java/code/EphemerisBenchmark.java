@@ -0,0 +1,51 @@
+package code;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+//KeplerPropagator.propagate Over N Bodies: the Nine Planets, Then Random Minor-Body-Like Orbits
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EphemerisBenchmark {
+    @Param({"9", "1000", "100000"})
+    int bodies;
+
+    private KeplerPropagator orbits;
+    private double[] positions;
+    private double gt;
+
+    @Setup
+    public void setup() {
+        Code.CelestialBody[] planets = Code.createPlanets();
+        orbits = Code.createOrbits(planets);
+        Random random = new Random(42);
+        while (orbits.getCount() < bodies) {
+            double a = 200.0 + random.nextDouble() * 400.0;
+            orbits.add(a, random.nextDouble() * 0.4, random.nextDouble() * 0.5,
+                       random.nextDouble() * 2.0 * Math.PI, random.nextDouble() * 2.0 * Math.PI,
+                       random.nextDouble() * 2.0 * Math.PI, 0.05 * Math.pow(520.0 / a, 1.5), Code.ORBIT_EPOCH);
+        }
+        positions = new double[bodies * 3];
+        gt = System.currentTimeMillis() / 1000.0 * 10.0;
+    }
+
+    @Benchmark
+    public void propagate(Blackhole bh) {
+        orbits.propagate(gt, positions);
+        bh.consume(positions);
+    }
+
+    //One Kepler solve at a time, the cost per body when it isn't batched
+    @Benchmark
+    public void solveKepler(Blackhole bh) {
+        for (int k = 0; k < bodies; k++) {
+            bh.consume(KeplerPropagator.solveKepler(gt * 1e-3 + k, 0.2));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package code;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+//KeplerPropagator.propagate, Scalar Loop vs KeplerVectorKernel, on Random Orbits with 0 <= e < 0.3
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class KeplerSolverBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int bodies;
+
+    @Param({"scalar", "vector"})
+    String solver;
+
+    private KeplerPropagator orbits;
+    private double[] positions;
+    private double gt;
+
+    @Setup
+    public void setup() {
+        orbits = new KeplerPropagator(bodies);
+        Random random = new Random(42);
+        for (int i = 0; i < bodies; i++) {
+            double a = 200.0 + random.nextDouble() * 400.0;
+            orbits.add(a, random.nextDouble() * 0.3, random.nextDouble() * 0.5,
+                       random.nextDouble() * 2.0 * Math.PI, random.nextDouble() * 2.0 * Math.PI,
+                       random.nextDouble() * 2.0 * Math.PI, 0.05 * Math.pow(520.0 / a, 1.5), Code.ORBIT_EPOCH);
+        }
+        if (orbits.setVectorized(solver.equals("vector")) != solver.equals("vector")) {
+            throw new IllegalStateException("jdk.incubator.vector is not available");
+        }
+        positions = new double[bodies * 3];
+        gt = System.currentTimeMillis() / 1000.0 * 10.0;
+    }
+
+    @Benchmark
+    public void propagate(Blackhole bh) {
+        gt += 1.0;
+        orbits.propagate(gt, positions);
+        bh.consume(positions);
+    }
+}
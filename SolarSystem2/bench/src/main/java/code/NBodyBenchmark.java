@@ -0,0 +1,48 @@
+package code;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//One NBodySimulation Leapfrog Step (Tree Build + Force Pass) Over the Sun, Planets and a Random Belt
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NBodyBenchmark {
+    @Param({"10000", "100000", "300000"})
+    int bodies;
+
+    private NBodySimulation simulation;
+
+    @Setup
+    public void setup() {
+        Code.CelestialBody[] planets = Code.createPlanets();
+        KeplerPropagator orbits = Code.createOrbits(planets);
+        Random random = new Random(42);
+        while (orbits.getCount() < bodies) {
+            double a = (2.1 + random.nextDouble() * 1.2) * MpcorbImporter.SCENE_UNITS_PER_AU;
+            orbits.add(a, random.nextDouble() * 0.2, random.nextDouble() * 0.3,
+                       random.nextDouble() * 2.0 * Math.PI, random.nextDouble() * 2.0 * Math.PI,
+                       random.nextDouble() * 2.0 * Math.PI, 0.05 * Math.pow(520.0 / a, 1.5), Code.ORBIT_EPOCH);
+        }
+        simulation = new NBodySimulation(bodies + 1, ForkJoinPool.commonPool());
+        simulation.setTime(Code.ORBIT_EPOCH);
+        simulation.add(NBodySimulation.GM_SUN, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+        double[] state = new double[6];
+        for (int k = 0; k < orbits.getCount(); k++) {
+            double mass = k < planets.length ? planets[k].mass : 1e-12;
+            simulation.addOrbit(orbits, k, mass * NBodySimulation.GM_SUN, 0, state);
+        }
+        simulation.removeMomentum();
+    }
+
+    @Benchmark
+    public double step() {
+        simulation.step(0.02);
+        return simulation.getTime();
+    }
+}
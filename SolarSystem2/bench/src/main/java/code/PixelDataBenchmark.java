@@ -0,0 +1,48 @@
+package code;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//RGBA Conversion of a 2048x1024 Body Layer: Graphics2D Redraw vs Direct Raster Loop
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PixelDataBenchmark {
+    //3BYTE_BGR is what ImageIO returns for the JPEGs, INT_ARGB what the resampler produces
+    @Param({"3BYTE_BGR", "4BYTE_ABGR", "INT_ARGB"})
+    String type;
+
+    private BufferedImage img;
+
+    @Setup
+    public void setup() {
+        int imageType = type.equals("3BYTE_BGR") ? BufferedImage.TYPE_3BYTE_BGR
+                      : type.equals("4BYTE_ABGR") ? BufferedImage.TYPE_4BYTE_ABGR
+                      : BufferedImage.TYPE_INT_ARGB;
+        img = new BufferedImage(2048, 1024, imageType);
+        Graphics2D g = img.createGraphics();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillOval(random.nextInt(2048), random.nextInt(1024), 50 + random.nextInt(400), 50 + random.nextInt(400));
+        }
+        g.dispose();
+    }
+
+    @Benchmark
+    public byte[] graphics2DRedraw() {
+        return Utils.getRGBAPixelData(img, true);
+    }
+
+    @Benchmark
+    public ByteBuffer directRaster() {
+        return Utils.getRGBAPixelBuffer(img, true);
+    }
+}
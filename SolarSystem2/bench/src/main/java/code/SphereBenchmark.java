@@ -0,0 +1,21 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//Sphere Mesh Construction at the Precisions SphereLod Builds (48 Was the Old Single Mesh)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SphereBenchmark {
+    @Param({"8", "16", "32", "48", "64", "128"})
+    int precision;
+
+    @Benchmark
+    public Sphere construct() {
+        return new Sphere(precision);
+    }
+}
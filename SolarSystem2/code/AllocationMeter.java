@@ -0,0 +1,48 @@
+package code;
+
+import java.lang.management.ManagementFactory;
+
+//Counts Bytes the Render Thread Allocates per Frame (HotSpot's per-thread TLAB counter)
+public class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final boolean supported;
+    private long frameStart;
+
+    //Written by the render thread, read by the overlay on the EDT
+    private volatile long lastFrameBytes, maxFrameBytes, totalFrames, allocatingFrames;
+
+    public AllocationMeter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+            supported = true;
+        } else {
+            threadBean = null;
+            supported = false;
+        }
+    }
+
+    public void beginFrame() {
+        if (supported) frameStart = threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    public void endFrame() {
+        if (!supported) return;
+        long bytes = threadBean.getCurrentThreadAllocatedBytes() - frameStart;
+        lastFrameBytes = bytes;
+        if (bytes > maxFrameBytes) maxFrameBytes = bytes;
+        if (bytes > 0) allocatingFrames++;
+        totalFrames++;
+    }
+
+    public long getLastFrameBytes() { return lastFrameBytes; }
+
+    //Called off the render thread, so building the String here doesn't count against a frame
+    public String describe() {
+        if (!supported) return "alloc/frame: unsupported on this JVM";
+        return "alloc/frame: " + lastFrameBytes + " B (max " + maxFrameBytes + " B, "
+            + allocatingFrames + "/" + totalFrames + " frames allocated)";
+    }
+}
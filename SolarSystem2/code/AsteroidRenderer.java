@@ -0,0 +1,143 @@
+package code;
+
+import java.nio.*;
+import java.lang.Math;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+import org.joml.Matrix4fc;
+
+//Draws Every Minor Body as a Point Sprite Whose Orbit Is Solved in the Vertex Shader
+//Each body's orbit goes to the GPU once: A.xyz & e, B.xyz (the same folded elements KeplerPropagator
+//keeps, see there) in one static buffer, and the mean anomaly at the upload time & mean motion, as
+//doubles, in another. A frame is then one glDrawArrays(GL_POINTS) plus a few uniforms, the same CPU
+//cost for ten bodies or a million. The shader gets time as a double offset from the upload and works
+//out the phase in double, reducing it to one turn before the float Kepler solve, so no span of
+//simulated time, at any warp, costs precision or ever needs the buffers touched again.
+public class AsteroidRenderer {
+    //Vertex layout: orbit_a (location 8), orbit_b (9) from the element buffer, orbit_phase (10) from the phase buffer
+    private static final int ORBIT_A_LOC = 8, ORBIT_B_LOC = 9, ORBIT_PHASE_LOC = 10;
+    private static final int FLOATS_PER_BODY = 8;
+    private static final int DOUBLES_PER_PHASE = 2;
+    private static final double TWO_PI = 2.0 * Math.PI;
+    static final int MAX_RADIAL_KNOTS = 16;
+
+    private final int elementVbo, phaseVbo;
+    private final int mvLoc, asteroidsLoc, timeLoc, pointSizeLoc, knotCountLoc, knotsLoc, texRangeLoc;
+    private float texInner, texOuter;
+    private KeplerPropagator orbits;  //null when showing fixed points (uploadPositions)
+    private final FloatBuffer matrixValues = Buffers.newDirectFloatBuffer(16);
+    private FloatBuffer points;
+    private DoubleBuffer phases;
+    private int count;
+    private double baseTime;
+
+    //Must be created on the GL thread with the rendering program in use
+    public AsteroidRenderer(int program, int elementVbo, int phaseVbo) {
+        GL4 gl = (GL4) GLContext.getCurrentGL();
+        this.elementVbo = elementVbo;
+        this.phaseVbo = phaseVbo;
+        mvLoc = gl.glGetUniformLocation(program, "mv_matrix");
+        asteroidsLoc = gl.glGetUniformLocation(program, "asteroids");
+        timeLoc = gl.glGetUniformLocation(program, "asteroid_time");
+        pointSizeLoc = gl.glGetUniformLocation(program, "point_size");
+        knotCountLoc = gl.glGetUniformLocation(program, "radial_knot_count");
+        knotsLoc = gl.glGetUniformLocation(program, "radial_knots");
+        texRangeLoc = gl.glGetUniformLocation(program, "point_tex_range");
+    }
+
+    //Colors each point from the bound texture by where its semi-major axis falls in [inner, outer]
+    //(RingRenderer's particles); the default, an empty range, draws them flat colored
+    public void setTextureRange(float inner, float outer) {
+        texInner = inner;
+        texOuter = outer;
+    }
+
+    public int getCount() { return count; }
+
+    //Uploads every orbit in orbits, replacing any earlier set; gt is the current time. Mean anomalies
+    //are taken at gt in double and reduced to one turn, which keeps the shader's sums small.
+    public void upload(GL4 gl, KeplerPropagator orbits, double gt) {
+        this.orbits = orbits;
+        count = orbits.getCount();
+        baseTime = gt;
+        FloatBuffer elements = Buffers.newDirectFloatBuffer(count * FLOATS_PER_BODY);
+        phases = Buffers.newDirectDoubleBuffer(count * DOUBLES_PER_PHASE);
+        double[] m0 = orbits.meanAnomaly, n = orbits.meanMotion, epoch = orbits.epoch;
+        for (int k = 0; k < count; k++) {
+            elements.put((float) orbits.ax[k]).put((float) orbits.ay[k]).put((float) orbits.az[k]).put((float) orbits.e[k]);
+            elements.put((float) orbits.bx[k]).put((float) orbits.by[k]).put((float) orbits.bz[k]).put(0.0f);
+            double m = m0[k] + n[k] * (gt - epoch[k]);
+            phases.put(m - Math.floor(m / TWO_PI) * TWO_PI).put(n[k]);
+        }
+        elements.flip();
+        phases.flip();
+        gl.glBindBuffer(GL_ARRAY_BUFFER, elementVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, (long) count * FLOATS_PER_BODY * 4, elements, GL_STATIC_DRAW);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, phaseVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, (long) count * DOUBLES_PER_PHASE * 8, phases, GL_STATIC_DRAW);
+    }
+
+    //Points that are simply at the given positions (x, y, z triples), e.g. NBodySimulation's minor bodies:
+    //A is the position and e, B and the phase are zero, which the shader places at A at any time
+    public void uploadPositions(GL4 gl, float[] xyz, int count) {
+        boolean resized = orbits != null || count != this.count || phases == null;
+        orbits = null;
+        this.count = count;
+        if (points == null || points.capacity() < count * FLOATS_PER_BODY) {
+            points = Buffers.newDirectFloatBuffer(count * FLOATS_PER_BODY);
+        }
+        points.clear();
+        for (int k = 0; k < count; k++) {
+            points.put(xyz[k*3]).put(xyz[k*3 + 1]).put(xyz[k*3 + 2]).put(0.0f);
+            points.put(0.0f).put(0.0f).put(0.0f).put(0.0f);
+        }
+        points.flip();
+        gl.glBindBuffer(GL_ARRAY_BUFFER, elementVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, (long) count * FLOATS_PER_BODY * 4, points, GL_STREAM_DRAW);
+        if (resized) {
+            phases = Buffers.newDirectDoubleBuffer(count * DOUBLES_PER_PHASE);  //zeroed
+            gl.glBindBuffer(GL_ARRAY_BUFFER, phaseVbo);
+            gl.glBufferData(GL_ARRAY_BUFFER, (long) count * DOUBLES_PER_PHASE * 8, phases, GL_STATIC_DRAW);
+        }
+    }
+
+    //mvMatrix places the orbits' frame in view space and is uploaded here, so whatever an earlier draw
+    //left in mv_matrix doesn't matter. knots holds (semi-major axis, scale) pairs sorted by axis,
+    //interpolated by each orbit's axis to follow the planets' per-orbit scaling; knotCount 0 draws the
+    //orbits unscaled
+    public void draw(GL4 gl, Matrix4fc mvMatrix, double gt, float pointSize, float[] knots, int knotCount, RenderStats stats) {
+        if (count == 0) return;
+
+        //The sphere's position & texcoord arrays would be read a million vertices deep
+        gl.glDisableVertexAttribArray(0);
+        gl.glDisableVertexAttribArray(1);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, elementVbo);
+        gl.glVertexAttribPointer(ORBIT_A_LOC, 4, GL_FLOAT, false, FLOATS_PER_BODY * 4, 0L);
+        gl.glEnableVertexAttribArray(ORBIT_A_LOC);
+        gl.glVertexAttribPointer(ORBIT_B_LOC, 4, GL_FLOAT, false, FLOATS_PER_BODY * 4, 16L);
+        gl.glEnableVertexAttribArray(ORBIT_B_LOC);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, phaseVbo);
+        gl.glVertexAttribLPointer(ORBIT_PHASE_LOC, 2, GL_DOUBLE, 0, 0L);
+        gl.glEnableVertexAttribArray(ORBIT_PHASE_LOC);
+
+        gl.glUniformMatrix4fv(mvLoc, 1, false, mvMatrix.get(matrixValues));
+        gl.glUniform1i(asteroidsLoc, 1);
+        gl.glUniform1d(timeLoc, orbits != null ? gt - baseTime : 0.0);
+        gl.glUniform1f(pointSizeLoc, pointSize);
+        gl.glUniform1i(knotCountLoc, knotCount);
+        if (knotCount > 0) gl.glUniform2fv(knotsLoc, knotCount, knots, 0);
+        gl.glUniform2f(texRangeLoc, texInner, texOuter);
+        gl.glEnable(GL_PROGRAM_POINT_SIZE);
+        gl.glDrawArrays(GL_POINTS, 0, count);
+        stats.draw(0);
+        gl.glDisable(GL_PROGRAM_POINT_SIZE);
+        gl.glUniform1i(asteroidsLoc, 0);
+
+        gl.glDisableVertexAttribArray(ORBIT_A_LOC);
+        gl.glDisableVertexAttribArray(ORBIT_B_LOC);
+        gl.glDisableVertexAttribArray(ORBIT_PHASE_LOC);
+        gl.glEnableVertexAttribArray(0);
+        gl.glEnableVertexAttribArray(1);
+    }
+}
@@ -0,0 +1,182 @@
+package code;
+
+//CPU Block Compression of RGBA8 Images to BC1 (DXT1) and BC3 (DXT5)
+//Endpoints come from the block's bounding box, with the diagonal picked from the colour covariance
+//and inset slightly, then each texel takes the nearest palette entry. Quality is close to the usual
+//"real-time DXT" encoders, which is plenty for offline conversion of the planet maps.
+public class BlockCompressor {
+    private BlockCompressor() { }
+
+    public static byte[] compressBC1(byte[] rgba, int width, int height) {
+        return compress(rgba, width, height, false);
+    }
+
+    public static byte[] compressBC3(byte[] rgba, int width, int height) {
+        return compress(rgba, width, height, true);
+    }
+
+    public static boolean hasAlpha(byte[] rgba) {
+        for (int i = 3; i < rgba.length; i += 4) {
+            if ((rgba[i] & 0xFF) != 255) return true;
+        }
+        return false;
+    }
+
+    //Box-filters an RGBA8 image to half size (at least 1x1), for building the mip chain
+    public static byte[] halve(byte[] rgba, int width, int height) {
+        byte[] out = new byte[Math.max(width / 2, 1) * Math.max(height / 2, 1) * 4];
+        halve(rgba, 0, width, height, out, 0);
+        return out;
+    }
+
+    //Same, reading the image at rgba[from] and writing the half-size one at out[to], so a whole mip chain
+    //can be built inside one array
+    public static void halve(byte[] rgba, int from, int width, int height, byte[] out, int to) {
+        int w = Math.max(width / 2, 1), h = Math.max(height / 2, 1);
+        for (int y = 0; y < h; y++) {
+            int y0 = from + Math.min(y * 2, height - 1) * width * 4;
+            int y1 = from + Math.min(y * 2 + 1, height - 1) * width * 4;
+            for (int x = 0; x < w; x++) {
+                int x0 = Math.min(x * 2, width - 1) * 4, x1 = Math.min(x * 2 + 1, width - 1) * 4;
+                for (int c = 0; c < 4; c++) {
+                    int sum = (rgba[y0 + x0 + c] & 0xFF) + (rgba[y0 + x1 + c] & 0xFF)
+                            + (rgba[y1 + x0 + c] & 0xFF) + (rgba[y1 + x1 + c] & 0xFF);
+                    out[to + (y * w + x) * 4 + c] = (byte) ((sum + 2) >> 2);
+                }
+            }
+        }
+    }
+
+    private static byte[] compress(byte[] rgba, int width, int height, boolean withAlpha) {
+        int blocksX = (width + 3) / 4, blocksY = (height + 3) / 4;
+        int blockBytes = withAlpha ? 16 : 8;
+        byte[] out = new byte[blocksX * blocksY * blockBytes];
+        int[] block = new int[64];
+        int pos = 0;
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                //Texels past the edge repeat the last row/column so partial blocks stay well formed
+                for (int y = 0; y < 4; y++) {
+                    int sy = Math.min(by * 4 + y, height - 1);
+                    for (int x = 0; x < 4; x++) {
+                        int sx = Math.min(bx * 4 + x, width - 1);
+                        for (int c = 0; c < 4; c++) {
+                            block[(y * 4 + x) * 4 + c] = rgba[(sy * width + sx) * 4 + c] & 0xFF;
+                        }
+                    }
+                }
+                if (withAlpha) {
+                    encodeAlphaBlock(block, out, pos);
+                    pos += 8;
+                }
+                encodeColorBlock(block, out, pos);
+                pos += 8;
+            }
+        }
+        return out;
+    }
+
+    private static void encodeColorBlock(int[] block, byte[] out, int pos) {
+        int[] min = {255, 255, 255}, max = {0, 0, 0};
+        float[] mean = new float[3];
+        for (int i = 0; i < 16; i++) {
+            for (int c = 0; c < 3; c++) {
+                int v = block[i * 4 + c];
+                if (v < min[c]) min[c] = v;
+                if (v > max[c]) max[c] = v;
+                mean[c] += v / 16.0f;
+            }
+        }
+
+        //The box diagonal runs min->max on every axis; flip red/blue if they anti-correlate with green
+        float covRG = 0.0f, covBG = 0.0f;
+        for (int i = 0; i < 16; i++) {
+            float g = block[i * 4 + 1] - mean[1];
+            covRG += (block[i * 4] - mean[0]) * g;
+            covBG += (block[i * 4 + 2] - mean[2]) * g;
+        }
+        if (covRG < 0.0f) { int t = min[0]; min[0] = max[0]; max[0] = t; }
+        if (covBG < 0.0f) { int t = min[2]; min[2] = max[2]; max[2] = t; }
+
+        //Inset the endpoints by 1/16 of the range to reduce the error of the outermost texels
+        for (int c = 0; c < 3; c++) {
+            int inset = (max[c] - min[c]) / 16;
+            min[c] += inset;
+            max[c] -= inset;
+        }
+
+        int c0 = to565(max[0], max[1], max[2]);
+        int c1 = to565(min[0], min[1], min[2]);
+        if (c0 < c1) { int t = c0; c0 = c1; c1 = t; }
+
+        int indices = 0;
+        if (c0 != c1) {
+            int[] palette = new int[12];
+            from565(c0, palette, 0);
+            from565(c1, palette, 3);
+            for (int c = 0; c < 3; c++) {
+                palette[6 + c] = (2 * palette[c] + palette[3 + c] + 1) / 3;
+                palette[9 + c] = (palette[c] + 2 * palette[3 + c] + 1) / 3;
+            }
+            for (int i = 0; i < 16; i++) {
+                int best = 0, bestDist = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int dr = block[i * 4] - palette[p * 3];
+                    int dg = block[i * 4 + 1] - palette[p * 3 + 1];
+                    int db = block[i * 4 + 2] - palette[p * 3 + 2];
+                    int dist = dr * dr + dg * dg + db * db;
+                    if (dist < bestDist) { bestDist = dist; best = p; }
+                }
+                indices |= best << (i * 2);
+            }
+        }
+
+        out[pos] = (byte) c0;
+        out[pos + 1] = (byte) (c0 >> 8);
+        out[pos + 2] = (byte) c1;
+        out[pos + 3] = (byte) (c1 >> 8);
+        for (int b = 0; b < 4; b++) out[pos + 4 + b] = (byte) (indices >> (b * 8));
+    }
+
+    private static void encodeAlphaBlock(int[] block, byte[] out, int pos) {
+        int a0 = 0, a1 = 255;
+        for (int i = 0; i < 16; i++) {
+            int a = block[i * 4 + 3];
+            if (a > a0) a0 = a;
+            if (a < a1) a1 = a;
+        }
+
+        //a0 > a1 selects the 8-value mode: a0, a1 and six interpolated steps between them
+        long indices = 0;
+        if (a0 > a1) {
+            int[] palette = new int[8];
+            palette[0] = a0;
+            palette[1] = a1;
+            for (int p = 1; p < 7; p++) palette[p + 1] = ((7 - p) * a0 + p * a1 + 3) / 7;
+            for (int i = 0; i < 16; i++) {
+                int a = block[i * 4 + 3];
+                int best = 0, bestDist = Integer.MAX_VALUE;
+                for (int p = 0; p < 8; p++) {
+                    int dist = Math.abs(a - palette[p]);
+                    if (dist < bestDist) { bestDist = dist; best = p; }
+                }
+                indices |= (long) best << (i * 3);
+            }
+        }
+
+        out[pos] = (byte) a0;
+        out[pos + 1] = (byte) a1;
+        for (int b = 0; b < 6; b++) out[pos + 2 + b] = (byte) (indices >> (b * 8));
+    }
+
+    private static int to565(int r, int g, int b) {
+        return ((r * 31 + 127) / 255) << 11 | ((g * 63 + 127) / 255) << 5 | ((b * 31 + 127) / 255);
+    }
+
+    private static void from565(int c, int[] dest, int offset) {
+        int r = (c >> 11) & 31, g = (c >> 5) & 63, b = c & 31;
+        dest[offset] = (r << 3) | (r >> 2);
+        dest[offset + 1] = (g << 2) | (g >> 4);
+        dest[offset + 2] = (b << 3) | (b >> 2);
+    }
+}
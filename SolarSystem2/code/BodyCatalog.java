@@ -0,0 +1,329 @@
+package code;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+//Binary Body Catalog, Memory-Mapped and Read in Place
+//  java code.BodyCatalog <file>    writes the built-in solar system as a catalog to start from
+//Layout (little-endian): a 48 byte header, then one fixed-size record per body, then a string table.
+//Records come in three runs: planets (the tour, drawn as textured spheres), their moons grouped by
+//parent in planet order, then minor bodies that only carry an orbit. Opening maps the file and checks
+//the planets and moons; the minor bodies, however many there are, stay untouched in the page cache
+//until something reads them (readBody, addOrbits), and no object is created per record.
+public class BodyCatalog {
+    private static final int MAGIC = 0x54435353;  //"SSCT"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 48;
+    static final int RECORD_BYTES = 128;
+
+    //Header: magic, version, recordBytes, planets, moons, minor bodies, strings offset & length,
+    //epoch (double, gt units) the mean anomalies are given at
+    //Record fields, byte offsets; angles in radians, distances and speeds in scene units
+    private static final int PARENT = 0;            //planet index for moons, -1 otherwise
+    private static final int FIRST_CHILD = 4;       //first moon's record, planets only
+    private static final int CHILD_COUNT = 8;
+    private static final int NAME = 12;             //string table offsets, -1 for none
+    private static final int TEXTURE = 16;
+    private static final int COLOR = 20;            //0xRRGGBB placeholder color
+    private static final int SIZE = 24;
+    private static final int ROTATION_SPEED = 28;
+    private static final int ORBIT_RADIUS = 32;     //semi-major axis
+    private static final int ORBIT_SPEED = 36;      //mean motion
+    private static final int ECCENTRICITY = 40;     //doubles from here
+    private static final int INCLINATION = 48;
+    private static final int ASCENDING_NODE = 56;
+    private static final int ARG_PERIAPSIS = 64;
+    private static final int MEAN_ANOMALY = 72;
+    private static final int REALISTIC_SIZE = 80;   //top-down layout
+    private static final int SCALED_SIZE = 84;
+    private static final int SCALED_ORBIT_RADIUS = 88;
+    private static final int FLY_BY = 92;           //endOffset, cp1, cp2, camDist
+    private static final int RING_TEXTURE = 108;    //string table offset, -1 for a planet without rings
+    private static final int RING_INNER = 112;      //ring radii in planet radii, tilt of the ring plane
+    private static final int RING_OUTER = 116;
+    private static final int RING_TILT = 120;
+    private static final int MASS = 124;            //solar masses (float), 0 for massless
+
+    //Supplies minor bodies one at a time to write(), filling the same instance each call
+    public interface MinorBodies {
+        void get(int index, Code.CelestialBody into);
+    }
+
+    private final String fileName;
+    private final ByteBuffer data;
+    private final int planetCount, moonCount, minorCount, stringsOffset;
+    private final double epoch;
+
+    private BodyCatalog(String fileName, ByteBuffer data) {
+        this.fileName = fileName;
+        this.data = data;
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new RuntimeException("'" + fileName + "' is not a body catalog");
+        }
+        if (data.getInt(4) != VERSION || data.getInt(8) != RECORD_BYTES) {
+            throw new RuntimeException("'" + fileName + "' is catalog version " + data.getInt(4) + ", expected " + VERSION);
+        }
+        planetCount = data.getInt(12);
+        moonCount = data.getInt(16);
+        minorCount = data.getInt(20);
+        stringsOffset = data.getInt(24);
+        int stringsLength = data.getInt(28);
+        epoch = data.getDouble(32);
+        long records = (long) planetCount + moonCount + minorCount;
+        if (planetCount < 1 || moonCount < 0 || minorCount < 0
+            || HEADER_BYTES + records * RECORD_BYTES > stringsOffset
+            || (long) stringsOffset + stringsLength > data.capacity()) {
+            throw new RuntimeException("'" + fileName + "' has a corrupt header");
+        }
+        validateMoons();
+    }
+
+    //Maps the file read-only; the mapping stays valid after the channel is closed
+    public static BodyCatalog open(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new RuntimeException("'" + fileName + "' is over 2 GB");
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BodyCatalog(fileName, data.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading '" + fileName + "'", e);
+        }
+    }
+
+    //Each planet's moons must be the contiguous run its record points at, and point back to it
+    private void validateMoons() {
+        int nextMoon = planetCount;
+        for (int p = 0; p < planetCount; p++) {
+            int first = data.getInt(record(p) + FIRST_CHILD), count = data.getInt(record(p) + CHILD_COUNT);
+            if (count == 0) continue;
+            if (first != nextMoon || count < 0 || first + count > planetCount + moonCount) {
+                throw new RuntimeException("'" + fileName + "' planet " + p + " has a bad moon range");
+            }
+            for (int m = first; m < first + count; m++) {
+                if (data.getInt(record(m) + PARENT) != p) {
+                    throw new RuntimeException("'" + fileName + "' moon " + m + " does not belong to planet " + p);
+                }
+            }
+            nextMoon += count;
+        }
+        if (nextMoon != planetCount + moonCount) throw new RuntimeException("'" + fileName + "' has moons without a planet");
+    }
+
+    public int getPlanetCount() { return planetCount; }
+    public int getMoonCount() { return moonCount; }
+    public int getMinorCount() { return minorCount; }
+    public int getFirstMinor() { return planetCount + moonCount; }
+    public double getEpoch() { return epoch; }
+
+    private static int record(int body) {
+        return HEADER_BYTES + body * RECORD_BYTES;
+    }
+
+    //Planets with their moons attached, the only bodies that become objects
+    public Code.CelestialBody[] createPlanets() {
+        Code.CelestialBody[] planets = new Code.CelestialBody[planetCount];
+        for (int p = 0; p < planetCount; p++) {
+            Code.CelestialBody planet = new Code.CelestialBody();
+            readBody(p, planet);
+            int r = record(p);
+            planet.withFlyBy(data.getFloat(r + FLY_BY), data.getFloat(r + FLY_BY + 4),
+                             data.getFloat(r + FLY_BY + 8), data.getFloat(r + FLY_BY + 12));
+            planet.ringTextureFile = string(data.getInt(r + RING_TEXTURE));
+            planet.ringInner = data.getFloat(r + RING_INNER);
+            planet.ringOuter = data.getFloat(r + RING_OUTER);
+            planet.ringTilt = data.getFloat(r + RING_TILT);
+            int first = data.getInt(r + FIRST_CHILD), count = data.getInt(r + CHILD_COUNT);
+            if (count > 0) {
+                float[] radii = new float[count], sizes = new float[count], speeds = new float[count], spins = new float[count];
+                String[] textures = new String[count];
+                for (int m = 0; m < count; m++) {
+                    int mr = record(first + m);
+                    radii[m] = data.getFloat(mr + ORBIT_RADIUS);
+                    sizes[m] = data.getFloat(mr + SIZE);
+                    speeds[m] = data.getFloat(mr + ORBIT_SPEED);
+                    spins[m] = data.getFloat(mr + ROTATION_SPEED);
+                    textures[m] = string(data.getInt(mr + TEXTURE));
+                }
+                planet.withMoons(radii, sizes, textures, speeds);
+                planet.moonRotationSpeeds = spins;
+            }
+            planets[p] = planet;
+        }
+        return planets;
+    }
+
+    //Fills an existing body from record b, without its moons, fly-by or rings; only the strings are allocated
+    public void readBody(int b, Code.CelestialBody into) {
+        int r = record(b);
+        into.name = string(data.getInt(r + NAME));
+        into.textureFile = string(data.getInt(r + TEXTURE));
+        int rgb = data.getInt(r + COLOR);
+        into.color[0] = ((rgb >> 16) & 0xFF) / 255.0f;
+        into.color[1] = ((rgb >> 8) & 0xFF) / 255.0f;
+        into.color[2] = (rgb & 0xFF) / 255.0f;
+        into.size = data.getFloat(r + SIZE);
+        into.rotationSpeed = data.getFloat(r + ROTATION_SPEED);
+        into.orbitRadius = data.getFloat(r + ORBIT_RADIUS);
+        into.orbitSpeed = data.getFloat(r + ORBIT_SPEED);
+        into.eccentricity = data.getDouble(r + ECCENTRICITY);
+        into.inclination = data.getDouble(r + INCLINATION);
+        into.ascendingNode = data.getDouble(r + ASCENDING_NODE);
+        into.argPeriapsis = data.getDouble(r + ARG_PERIAPSIS);
+        into.meanAnomaly = data.getDouble(r + MEAN_ANOMALY);
+        into.realisticSize = data.getFloat(r + REALISTIC_SIZE);
+        into.scaledSize = data.getFloat(r + SCALED_SIZE);
+        into.scaledOrbitRadius = data.getFloat(r + SCALED_ORBIT_RADIUS);
+        into.mass = data.getFloat(r + MASS);
+    }
+
+    //Adds the orbits of bodies [from, to) straight from the mapped records; returns the first index added
+    public int addOrbits(KeplerPropagator propagator, int from, int to) {
+        int first = propagator.getCount();
+        for (int b = from; b < to; b++) {
+            int r = record(b);
+            propagator.add(data.getFloat(r + ORBIT_RADIUS), data.getDouble(r + ECCENTRICITY),
+                           data.getDouble(r + INCLINATION), data.getDouble(r + ASCENDING_NODE),
+                           data.getDouble(r + ARG_PERIAPSIS), data.getDouble(r + MEAN_ANOMALY),
+                           data.getFloat(r + ORBIT_SPEED), epoch);
+        }
+        return first;
+    }
+
+    //Strings are a uint16 byte length then UTF-8
+    private String string(int offset) {
+        if (offset < 0) return null;
+        int at = stringsOffset + offset;
+        int length = data.getShort(at) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        data.get(at + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Writes planets (with their moons) and minorCount bodies pulled from minor, all at the given epoch
+    public static void write(String fileName, Code.CelestialBody[] planets, double epoch, int minorCount, MinorBodies minor) {
+        int moonCount = 0;
+        for (Code.CelestialBody planet : planets) {
+            if (planet.moonOrbitRadii != null) moonCount += planet.moonOrbitRadii.length;
+        }
+        long stringsOffset = HEADER_BYTES + ((long) planets.length + moonCount + minorCount) * RECORD_BYTES;
+        if (stringsOffset > Integer.MAX_VALUE) throw new RuntimeException("'" + fileName + "' would be over 2 GB");
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        ByteBuffer records = ByteBuffer.allocateDirect(RECORD_BYTES * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_BYTES);
+            int nextMoon = planets.length;
+            for (int p = 0; p < planets.length; p++) {
+                Code.CelestialBody planet = planets[p];
+                int count = planet.moonOrbitRadii == null ? 0 : planet.moonOrbitRadii.length;
+                putBody(records, planet, -1, count == 0 ? 0 : nextMoon, count, strings);
+                nextMoon += count;
+                flushIfFull(channel, records);
+            }
+            Code.CelestialBody moon = new Code.CelestialBody();
+            for (int p = 0; p < planets.length; p++) {
+                Code.CelestialBody planet = planets[p];
+                if (planet.moonOrbitRadii == null) continue;
+                for (int m = 0; m < planet.moonOrbitRadii.length; m++) {
+                    moon.name = planet.name + " " + (m + 1);
+                    moon.textureFile = planet.moonTextureFiles[m];
+                    moon.orbitRadius = planet.moonOrbitRadii[m];
+                    moon.size = planet.moonSizes[m];
+                    moon.orbitSpeed = planet.moonSpeeds[m];
+                    moon.rotationSpeed = planet.getMoonRotationSpeed(m);
+                    putBody(records, moon, p, 0, 0, strings);
+                    flushIfFull(channel, records);
+                }
+            }
+            Code.CelestialBody body = new Code.CelestialBody();
+            for (int k = 0; k < minorCount; k++) {
+                minor.get(k, body);
+                putBody(records, body, -1, 0, 0, strings);
+                flushIfFull(channel, records);
+            }
+            records.flip();
+            writeFully(channel, records);
+            writeFully(channel, ByteBuffer.wrap(strings.toByteArray()));
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES);
+            header.putInt(planets.length).putInt(moonCount).putInt(minorCount);
+            header.putInt((int) stringsOffset).putInt(strings.size()).putDouble(epoch);
+            header.position(HEADER_BYTES).flip();
+            channel.position(0);
+            writeFully(channel, header);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing '" + fileName + "'", e);
+        }
+    }
+
+    private static void putBody(ByteBuffer out, Code.CelestialBody body, int parent, int firstChild, int childCount,
+                                ByteArrayOutputStream strings) {
+        int r = out.position();
+        out.putInt(r + PARENT, parent);
+        out.putInt(r + FIRST_CHILD, firstChild);
+        out.putInt(r + CHILD_COUNT, childCount);
+        out.putInt(r + NAME, putString(strings, body.name));
+        out.putInt(r + TEXTURE, putString(strings, body.textureFile));
+        out.putInt(r + COLOR, Math.round(body.color[0] * 255.0f) << 16 | Math.round(body.color[1] * 255.0f) << 8
+                              | Math.round(body.color[2] * 255.0f));
+        out.putFloat(r + SIZE, body.size);
+        out.putFloat(r + ROTATION_SPEED, body.rotationSpeed);
+        out.putFloat(r + ORBIT_RADIUS, body.orbitRadius);
+        out.putFloat(r + ORBIT_SPEED, body.orbitSpeed);
+        out.putDouble(r + ECCENTRICITY, body.eccentricity);
+        out.putDouble(r + INCLINATION, body.inclination);
+        out.putDouble(r + ASCENDING_NODE, body.ascendingNode);
+        out.putDouble(r + ARG_PERIAPSIS, body.argPeriapsis);
+        out.putDouble(r + MEAN_ANOMALY, body.meanAnomaly);
+        out.putFloat(r + REALISTIC_SIZE, body.realisticSize);
+        out.putFloat(r + SCALED_SIZE, body.scaledSize);
+        out.putFloat(r + SCALED_ORBIT_RADIUS, body.scaledOrbitRadius);
+        Code.TransitionStage flyBy = body.flyBy;
+        out.putFloat(r + FLY_BY, flyBy == null ? 0.0f : flyBy.endOffset);
+        out.putFloat(r + FLY_BY + 4, flyBy == null ? 0.0f : flyBy.controlPoint1);
+        out.putFloat(r + FLY_BY + 8, flyBy == null ? 0.0f : flyBy.controlPoint2);
+        out.putFloat(r + FLY_BY + 12, flyBy == null ? 0.0f : flyBy.camDist);
+        out.putInt(r + RING_TEXTURE, putString(strings, body.ringTextureFile));
+        out.putFloat(r + RING_INNER, body.ringInner);
+        out.putFloat(r + RING_OUTER, body.ringOuter);
+        out.putFloat(r + RING_TILT, body.ringTilt);
+        out.putFloat(r + MASS, (float) body.mass);
+        out.position(r + RECORD_BYTES);
+    }
+
+    private static int putString(ByteArrayOutputStream strings, String s) {
+        if (s == null) return -1;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("name over 65535 bytes: " + s);
+        int offset = strings.size();
+        strings.write(bytes.length);
+        strings.write(bytes.length >> 8);
+        strings.write(bytes, 0, bytes.length);
+        return offset;
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer records) throws IOException {
+        if (records.remaining() >= RECORD_BYTES) return;
+        records.flip();
+        writeFully(channel, records);
+        records.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) channel.write(data);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("usage: java code.BodyCatalog <file>");
+            System.exit(2);
+        }
+        Code.CelestialBody[] planets = Code.createPlanets();
+        write(args[0], planets, Code.ORBIT_EPOCH, 0, null);
+        System.out.println("Wrote " + planets.length + " planets to '" + args[0] + "'");
+    }
+}
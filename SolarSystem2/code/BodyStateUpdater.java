@@ -0,0 +1,154 @@
+package code;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Per-Frame Body State Stage: Positions, Spins & Moon Offsets for One Instant, Computed Off to the Side
+//update(gt, target) fills a caller-owned Snapshot; SimulationThread keeps them in its triple-buffered
+//WorldStates, so the render stage only ever reads a complete, unchanging one. Bodies and moons are
+//split into CHUNK-sized ranges that run on a ForkJoinPool (the calling thread joins in); below one
+//chunk everything runs inline, which keeps the nine-planet scene free of task allocation. Moon offsets
+//are relative to the parent and unscaled, since each view places moons at its own scale around
+//wherever it draws the parent.
+//With an ephemeris set, body positions inside its span are looked up from it instead of solved.
+public class BodyStateUpdater {
+    //Large enough to amortize a task, and a multiple of every SIMD lane count KeplerVectorKernel uses
+    private static final int CHUNK = 4096;
+
+    public static class Snapshot {
+        double time = Double.NaN;
+        final double[] positions;   //x, y, z per body
+        final float[] spins;        //radians per body
+        final float[] moonOffsets;  //x, z per moon, relative to its parent
+        final float[] moonSpins;
+
+        public Snapshot(int bodies, int moons) {
+            positions = new double[bodies * 3];
+            spins = new float[bodies];
+            moonOffsets = new float[moons * 2];
+            moonSpins = new float[moons];
+        }
+
+        public double getTime() { return time; }
+
+        void copyFrom(Snapshot other) {
+            time = other.time;
+            System.arraycopy(other.positions, 0, positions, 0, positions.length);
+            System.arraycopy(other.spins, 0, spins, 0, spins.length);
+            System.arraycopy(other.moonOffsets, 0, moonOffsets, 0, moonOffsets.length);
+            System.arraycopy(other.moonSpins, 0, moonSpins, 0, moonSpins.length);
+        }
+
+        //State between a (alpha = 0) and b (alpha = 1); spins take the short way round the circle
+        void interpolate(Snapshot a, Snapshot b, float alpha) {
+            time = a.time + (b.time - a.time) * alpha;
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = a.positions[i] + (b.positions[i] - a.positions[i]) * alpha;
+            }
+            for (int i = 0; i < moonOffsets.length; i++) {
+                moonOffsets[i] = a.moonOffsets[i] + (b.moonOffsets[i] - a.moonOffsets[i]) * alpha;
+            }
+            interpolateAngles(a.spins, b.spins, alpha, spins);
+            interpolateAngles(a.moonSpins, b.moonSpins, alpha, moonSpins);
+        }
+
+        private static void interpolateAngles(float[] a, float[] b, float alpha, float[] dest) {
+            for (int i = 0; i < dest.length; i++) {
+                float delta = b[i] - a[i];
+                if (delta > Math.PI) delta -= (float)(2.0 * Math.PI);
+                else if (delta < -Math.PI) delta += (float)(2.0 * Math.PI);
+                dest[i] = a[i] + delta * alpha;
+            }
+        }
+    }
+
+    private final KeplerPropagator orbits;
+    private final float[] rotationSpeeds;
+    private final float[] moonRadii, moonSpeeds, moonRotationSpeeds;
+    private final ForkJoinPool pool;
+    private ChebyshevEphemeris ephemeris;
+
+    //One rotation speed per body in orbits; moons described by parallel arrays
+    public BodyStateUpdater(KeplerPropagator orbits, float[] rotationSpeeds, float[] moonRadii,
+                            float[] moonSpeeds, float[] moonRotationSpeeds, ForkJoinPool pool) {
+        this.orbits = orbits;
+        this.rotationSpeeds = rotationSpeeds;
+        this.moonRadii = moonRadii;
+        this.moonSpeeds = moonSpeeds;
+        this.moonRotationSpeeds = moonRotationSpeeds;
+        this.pool = pool;
+    }
+
+    //Table for every body in orbits, used wherever it covers the time; null solves every step
+    public void setEphemeris(ChebyshevEphemeris ephemeris) {
+        if (ephemeris != null && ephemeris.getBodyCount() != orbits.getCount()) {
+            throw new IllegalArgumentException("ephemeris has " + ephemeris.getBodyCount() + " bodies, expected " + orbits.getCount());
+        }
+        this.ephemeris = ephemeris;
+    }
+
+    public Snapshot newSnapshot() {
+        return new Snapshot(orbits.getCount(), moonRadii.length);
+    }
+
+    //Only one thread may call update at a time
+    public void update(double gt, Snapshot target) {
+        int bodies = orbits.getCount(), moons = moonRadii.length;
+        if (bodies <= CHUNK && moons <= CHUNK) {
+            updateBodies(target, gt, 0, bodies);
+            updateMoons(target, gt, 0, moons);
+        } else {
+            pool.invoke(new RangeTask(target, gt, 0, bodies + moons));
+        }
+        target.time = gt;
+    }
+
+    private void updateBodies(Snapshot s, double gt, int from, int to) {
+        ChebyshevEphemeris table = ephemeris;
+        if (table != null && table.covers(gt)) {
+            table.positions(gt, from, to, s.positions);
+        } else {
+            orbits.propagate(gt, from, to, s.positions);
+        }
+        for (int k = from; k < to; k++) {
+            s.spins[k] = Code.spin(gt, rotationSpeeds[k]);
+        }
+    }
+
+    private void updateMoons(Snapshot s, double gt, int from, int to) {
+        for (int m = from; m < to; m++) {
+            double angle = gt * moonSpeeds[m];
+            s.moonOffsets[m*2] = (float)Math.sin(angle) * moonRadii[m];
+            s.moonOffsets[m*2 + 1] = (float)Math.cos(angle) * moonRadii[m];
+            s.moonSpins[m] = Code.spin(gt, moonRotationSpeeds[m]);
+        }
+    }
+
+    //Splits [from, to) over bodies followed by moons until a range fits in one chunk
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Snapshot target;
+        private final double gt;
+        private final int from, to;
+
+        RangeTask(Snapshot target, double gt, int from, int to) {
+            this.target = target;
+            this.gt = gt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                //Split on a chunk boundary so vector blocks stay whole
+                int mid = from + Math.max(1, (to - from) / (2 * CHUNK)) * CHUNK;
+                invokeAll(new RangeTask(target, gt, from, mid), new RangeTask(target, gt, mid, to));
+                return;
+            }
+            int bodies = orbits.getCount();
+            if (from < bodies) updateBodies(target, gt, from, Math.min(to, bodies));
+            if (to > bodies) updateMoons(target, gt, Math.max(from, bodies) - bodies, to - bodies);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package code;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ForkJoinPool;
+
+//Precomputed Planet Positions as Per-Segment Chebyshev Polynomials, Memory-Mapped (After JPL's DE Files)
+//  java code.ChebyshevEphemeris [-hours h] [-from unixSeconds] [-nbody] <file>
+//writes a table for the built-in planets over h hours of simulated time (default 6) from -from (default
+//now), sampling the Kepler orbits, or with -nbody an NBodySimulation of the sun and planets, whose
+//positions then no longer depend on integrating up to the time shown. Code uses it with -Dephemeris=<file>.
+//Each body's time span is cut into equal segments of its own length, a quarter of its orbit, and each
+//segment stores DEGREE + 1 Chebyshev coefficients per axis, fitted by interpolation at the Chebyshev
+//nodes. A lookup is then a division for the segment index and a Clenshaw recurrence per axis, the same
+//cost at any time in the span and with nothing accumulated between lookups.
+//Layout (little-endian): a 48 byte header; per body its segment length (double), segment count (int),
+//4 bytes unused and the byte offset of its segments (long); then each body's segments in time order,
+//x coefficients, y, then z, lowest order first.
+public class ChebyshevEphemeris {
+    private static final int MAGIC = 0x50455353;  //"SSEP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 48;
+    private static final int DIRECTORY_BYTES = 24;
+    static final int DEGREE = 12;
+    //Segment length, as an angle of the body's orbit
+    private static final double SEGMENT_ANGLE = Math.PI / 2.0;
+
+    //Header: magic, version, bodies, coefficients per axis, start & end time (doubles, gt units)
+
+    //Positions of every body at a time, for the generator; t never decreases from one call to the next
+    public interface Source {
+        void sample(double t, double[] positions);
+    }
+
+    private final int bodies, coefficients, segmentBytes;
+    private final double start, end;
+    private final double[] segmentLength;
+    private final int[] segmentCount;
+    private final long[] segmentOffset;
+    private final ByteBuffer data;
+    private final DoubleBuffer coefficientData;  //the same mapping, indexed in doubles
+
+    private ChebyshevEphemeris(String fileName, ByteBuffer data) {
+        this.data = data;
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new RuntimeException("'" + fileName + "' is not an ephemeris");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new RuntimeException("'" + fileName + "' is ephemeris version " + data.getInt(4) + ", expected " + VERSION);
+        }
+        bodies = data.getInt(8);
+        coefficients = data.getInt(12);
+        start = data.getDouble(16);
+        end = data.getDouble(24);
+        if (bodies < 1 || coefficients < 1 || !(end > start)
+            || HEADER_BYTES + (long) bodies * DIRECTORY_BYTES > data.capacity()) {
+            throw new RuntimeException("'" + fileName + "' has a corrupt header");
+        }
+        segmentBytes = 3 * coefficients * 8;
+        coefficientData = data.asDoubleBuffer();
+        segmentLength = new double[bodies];
+        segmentCount = new int[bodies];
+        segmentOffset = new long[bodies];
+        for (int b = 0; b < bodies; b++) {
+            int d = HEADER_BYTES + b * DIRECTORY_BYTES;
+            segmentLength[b] = data.getDouble(d);
+            segmentCount[b] = data.getInt(d + 8);
+            segmentOffset[b] = data.getLong(d + 16);
+            if (!(segmentLength[b] > 0.0) || segmentCount[b] < 1
+                || start + segmentLength[b] * segmentCount[b] < end
+                || segmentOffset[b] % 8 != 0 || segmentOffset[b] + (long) segmentCount[b] * segmentBytes > data.capacity()) {
+                throw new RuntimeException("'" + fileName + "' body " + b + " has a bad segment table");
+            }
+        }
+    }
+
+    //Maps the file read-only; the mapping stays valid after the channel is closed
+    public static ChebyshevEphemeris open(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new RuntimeException("'" + fileName + "' is over 2 GB");
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ChebyshevEphemeris(fileName, data.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading '" + fileName + "'", e);
+        }
+    }
+
+    public int getBodyCount() { return bodies; }
+    public double getStart() { return start; }
+    public double getEnd() { return end; }
+
+    public boolean covers(double t) {
+        return t >= start && t <= end;
+    }
+
+    //Positions of bodies [from, to) at time t, written at their own offsets in out like
+    //KeplerPropagator.propagate; t must be in the span (see covers)
+    public void positions(double t, int from, int to, double[] out) {
+        for (int b = from; b < to; b++) {
+            double u = (t - start) / segmentLength[b];
+            int s = Math.min((int) u, segmentCount[b] - 1);
+            double tau = 2.0 * (u - s) - 1.0;
+            int at = (int) ((segmentOffset[b] + (long) s * segmentBytes) >> 3);
+            out[b*3]     = evaluate(at, tau);
+            out[b*3 + 1] = evaluate(at + coefficients, tau);
+            out[b*3 + 2] = evaluate(at + coefficients * 2, tau);
+        }
+    }
+
+    //Clenshaw's recurrence for sum c_j T_j(tau), tau in [-1, 1], coefficients from double index at
+    private double evaluate(int at, double tau) {
+        DoubleBuffer c = coefficientData;
+        double b1 = 0.0, b2 = 0.0;
+        double twoTau = 2.0 * tau;
+        for (int j = coefficients - 1; j >= 1; j--) {
+            double b0 = twoTau * b1 - b2 + c.get(at + j);
+            b2 = b1;
+            b1 = b0;
+        }
+        return tau * b1 - b2 + c.get(at);
+    }
+
+    //Fits bodies from source over [start, end], each body in segments of its own segmentLengths[b]
+    public static void write(String fileName, Source source, double[] segmentLengths, double start, double end, int degree) {
+        int bodies = segmentLengths.length, n = degree + 1;
+        int segmentBytes = 3 * n * 8;
+        int[] counts = new int[bodies];
+        long[] offsets = new long[bodies];
+        long size = HEADER_BYTES + (long) bodies * DIRECTORY_BYTES;
+        for (int b = 0; b < bodies; b++) {
+            counts[b] = (int) Math.max(1, Math.ceil((end - start) / segmentLengths[b]));
+            offsets[b] = size;
+            size += (long) counts[b] * segmentBytes;
+        }
+        if (size > Integer.MAX_VALUE) throw new RuntimeException("'" + fileName + "' would be over 2 GB; shorten the span");
+
+        //Chebyshev nodes in increasing time order, and T_j at each
+        double[] nodes = new double[n];
+        double[][] basis = new double[n][n];
+        for (int k = 0; k < n; k++) {
+            nodes[k] = -Math.cos(Math.PI * (k + 0.5) / n);
+            for (int j = 0; j < n; j++) basis[k][j] = Math.cos(j * Math.PI * (n - k - 0.5) / n);
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, bodies).putInt(12, n);
+            out.putDouble(16, start).putDouble(24, end);
+            for (int b = 0; b < bodies; b++) {
+                int d = HEADER_BYTES + b * DIRECTORY_BYTES;
+                out.putDouble(d, segmentLengths[b]).putInt(d + 8, counts[b]).putInt(d + 12, 0).putLong(d + 16, offsets[b]);
+            }
+
+            //Every body's next node, merged so the source only ever moves forward in time
+            double[] positions = new double[bodies * 3];
+            double[][] samples = new double[bodies][3 * n];
+            int[] segment = new int[bodies], node = new int[bodies];
+            int remaining = bodies;
+            while (remaining > 0) {
+                double t = Double.POSITIVE_INFINITY;
+                for (int b = 0; b < bodies; b++) {
+                    if (segment[b] < counts[b]) t = Math.min(t, nodeTime(start, segmentLengths[b], segment[b], nodes[node[b]]));
+                }
+                source.sample(t, positions);
+                for (int b = 0; b < bodies; b++) {
+                    if (segment[b] == counts[b] || nodeTime(start, segmentLengths[b], segment[b], nodes[node[b]]) != t) continue;
+                    for (int axis = 0; axis < 3; axis++) samples[b][axis * n + node[b]] = positions[b*3 + axis];
+                    if (++node[b] < n) continue;
+                    int at = (int) (offsets[b] + (long) segment[b] * segmentBytes);
+                    for (int axis = 0; axis < 3; axis++) {
+                        for (int j = 0; j < n; j++) {
+                            double c = 0.0;
+                            for (int k = 0; k < n; k++) c += samples[b][axis * n + k] * basis[k][j];
+                            c *= (j == 0 ? 1.0 : 2.0) / n;
+                            out.putDouble(at + (axis * n + j) * 8, c);
+                        }
+                    }
+                    node[b] = 0;
+                    if (++segment[b] == counts[b]) remaining--;
+                }
+            }
+            ((MappedByteBuffer) out).force();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing '" + fileName + "'", e);
+        }
+    }
+
+    private static double nodeTime(double start, double length, int segment, double node) {
+        return start + length * (segment + (node + 1.0) * 0.5);
+    }
+
+    public static void main(String[] args) {
+        double hours = 6.0, from = System.currentTimeMillis() / 1000.0;
+        boolean nbody = false;
+        String fileName = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-hours") && i + 1 < args.length) {
+                hours = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-from") && i + 1 < args.length) {
+                from = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-nbody")) {
+                nbody = true;
+            } else {
+                fileName = args[i];
+            }
+        }
+        if (fileName == null || !(hours > 0.0)) {
+            System.err.println("usage: java code.ChebyshevEphemeris [-hours h] [-from unixSeconds] [-nbody] <file>");
+            System.exit(2);
+        }
+
+        Code.CelestialBody[] planets = Code.createPlanets();
+        KeplerPropagator orbits = Code.createOrbits(planets);
+        double start = from * 10.0, end = start + hours * 3600.0 * 10.0;  //gt units
+        double[] segmentLengths = new double[planets.length];
+        Source source;
+        if (nbody) {
+            NBodySimulation simulation = new NBodySimulation(planets.length + 1, ForkJoinPool.commonPool());
+            simulation.setTime(start);
+            simulation.add(NBodySimulation.GM_SUN, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+            double[] state = new double[6];
+            int heaviest = 0;
+            for (int i = 0; i < planets.length; i++) {
+                simulation.addOrbit(orbits, i, planets[i].mass * NBodySimulation.GM_SUN, 0, state);
+                double a = planets[i].orbitRadius;
+                segmentLengths[i] = SEGMENT_ANGLE / Math.sqrt(NBodySimulation.GM_SUN / (a * a * a));
+                if (planets[i].mass > planets[heaviest].mass) heaviest = i;
+            }
+            simulation.removeMomentum();
+            //Positions are relative to the sun, which the heaviest planet swings around at its own period,
+            //so no segment may be longer than that planet's
+            for (int i = 0; i < planets.length; i++) {
+                segmentLengths[i] = Math.min(segmentLengths[i], segmentLengths[heaviest]);
+            }
+            source = (t, positions) -> {
+                simulation.advance(t - simulation.getTime());
+                simulation.copyPositions(1, planets.length + 1, 0, positions, 0);
+            };
+        } else {
+            for (int i = 0; i < planets.length; i++) segmentLengths[i] = SEGMENT_ANGLE / planets[i].orbitSpeed;
+            source = orbits::propagate;
+        }
+        long startNanos = System.nanoTime();
+        write(fileName, source, segmentLengths, start, end, DEGREE);
+        System.out.printf("Wrote %.2f hours of %d planets (%s) to '%s', %d KB, in %.0f ms%n", hours, planets.length,
+                          nbody ? "n-body" : "Kepler", fileName, new java.io.File(fileName).length() / 1024,
+                          (System.nanoTime() - startNanos) / 1e6);
+    }
+}
@@ -3,6 +3,10 @@ package code;
 import java.io.*;
 import java.nio.*;
 import java.lang.Math;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.lang.management.ManagementFactory;
 import javax.swing.*;
 import static com.jogamp.opengl.GL4.*;
 import com.jogamp.opengl.*;
@@ -13,55 +17,146 @@ import org.joml.*;
 import java.awt.event.*;
 
 
-public class Code extends JFrame implements GLEventListener, KeyListener {
+public class Code implements GLEventListener, KeyListener {
+    private JFrame frame;
     private GLJPanel myPanel;
     private Animator animator;
     private int renderingProgram;
     private int vao[] = new int[1];
     private int vbo[] = new int[15];
-    private Sphere mySphere;
-    private int numSphereVerts, numOrbitVerts, numSquareVerts;
+    private SphereLod sphereLod;
+    private int numOrbitVerts, numSquareIndices;
+    private long squareIndexOffset;
     
     //Camera & Projection
-    private float cameraX, cameraY, cameraZ;
     private float aspect;
-    private int mvLoc, pLoc, colorLoc;
+    private int surfaceWidth = 1, surfaceHeight = 1;
+    private int mvLoc, pLoc, colorLoc, instancedLoc;
     private FloatBuffer vals = Buffers.newDirectFloatBuffer(16);
     private Matrix4fStack mvStack = new Matrix4fStack(10);
     private Matrix4f pMat = new Matrix4f();
     private Matrix4f vMat = new Matrix4f();
     private boolean projectionNeedsUpdate = true;
+    private boolean projectedTopDown, projectedScaled;
+    
+    //Simulation: stepped on its own thread, which alone touches the state below; input reaches it as
+    //commands, and the renderer only sees published WorldStates, blended into view
+    private SimulationThread simulation;
+    private WorldState view;
     
-    //Animation
-    private long startTime, stageStartTime;
+    //Input Commands (offered from any thread, drained at the start of every simulation step)
+    private static final int CMD_TOGGLE_TOP_DOWN = 0, CMD_TOGGLE_SCALED = 1, CMD_ADVANCE = 2, CMD_JUMP = 3,
+                             CMD_PAUSE = 4, CMD_STEP = 5, CMD_WARP_FASTER = 6, CMD_WARP_SLOWER = 7,
+                             CMD_SET_VIEW = 8;
+    private final InputQueue commands = new InputQueue(256);
+    private final InputQueue.Handler commandHandler = this::applyCommand;
+    private final InputLatencyMeter inputLatency = new InputLatencyMeter();
+    private long appliedCommands, lastCommandNanos;
+    
+    //Simulation State
+    private final SimulationClock clock;
+    private double frameStep;
+    private double stageStartTime;
     private int currentStage = 0;
     private boolean transitionComplete = false;
     private boolean topDownMode = true;
     private boolean scaledViewMode = false;
+    private float cameraX, cameraY, cameraZ;
     private float prevCameraX, prevCameraY, prevCameraZ;
     
     //etc. 
     private CelestialBody[] planets;
     private TransitionStage[] stages;
-    private int sunTexture, shootingStarTexture, skydomeTexture;
+    private BodyCatalog catalog;  //null when running on the built-in planets
+    
+    //Keplerian Orbits & the Per-Frame Body State Computed From Them
+    private KeplerPropagator orbits;
+    private BodyStateUpdater bodyState;
+    private BodyStateUpdater.Snapshot bodies;  //the step being simulated
+    private volatile KeplerPropagator minorBodies;  //set once loadMinorBodies finishes, if there are any
+    //-Dnbody=true: the sun (body 0), planets and, once loaded, minor bodies under mutual gravity instead
+    private NBodySimulation nbody;
+    private boolean nbodyHasMinors;
+    private long uploadedMinorVersion = -1;
+    private final NBodySimulation.PositionReader minorPositionUploader = this::uploadMinorPositions;
+    private final double[] stateVector = new double[6];  //simulation thread
+    private static final double MINOR_BODY_MASS = 1e-12;  //solar masses each; the belt barely tugs the planets
+    private AsteroidRenderer asteroidRenderer;
+    //(semi-major axis, scale) per planet, by axis, so the scaled top-down view spreads the belt like the planets
+    private final float[] radialKnots = new float[AsteroidRenderer.MAX_RADIAL_KNOTS * 2];
+    private int radialKnotCount;
+    private RingRenderer[] ringRenderers;  //by planet, null for planets without rings
+    private int shootingStarTexture, skydomeTexture;
+    
+    //Instanced Bodies
+    private InstancedBodyRenderer bodyRenderer;
+    private TextureStreamer textureStreamer;
+    private ArrayList<String> bodyTextureFiles;  //by layer
+    private int[] highResolution;  //-Dtextures.hires as {width, height}, null when unset or invalid
+    private int sunLayer;
+    private static final int SUN_ID = 0;
+    private static final int SKYDOME_LOD = 3;
+    private static final float[] SUN_COLOR = {1.0f, 0.8f, 0.3f};
+    private static final float[] MOON_COLOR = {0.6f, 0.6f, 0.6f};
+    
+    //Startup (milliseconds since JVM start)
+    private static final long TEXTURE_UPLOAD_BUDGET_NANOS = 4000000L;
+    private volatile long firstFrameMillis = -1, texturesReadyMillis = -1;
+    static final int BODY_TEXTURE_WIDTH = 2048, BODY_TEXTURE_HEIGHT = 1024;
     
     //Transition Variables
     private static final float APPROACH_DURATION = 6.0f;  
     private static final float ORBIT_DURATION = 4.0f;     
     private static final float ORBIT_RADIUS = 1.2f;       
+    private static final double MAX_TIME_WARP = 65536.0;
+    
+    private static final float MOON_ROTATION_SPEED = 0.4f;
+    
+    //Per-Frame Scratch (reused every frame so the display loop doesn't allocate)
+    private final NavigationState navState = new NavigationState();
+    private final PathData path = new PathData();
+    private final Vector3f planetPos = new Vector3f(), currentPlanetPos = new Vector3f();
+    private final Vector3f startPos = new Vector3f(), endPos = new Vector3f();
+    private final Vector3f toTarget = new Vector3f(), toCurrent = new Vector3f(), perpendicular = new Vector3f();
+    private final Vector3f starPos = new Vector3f(), prevStarPos = new Vector3f(), direction = new Vector3f();
+    private final Vector3f bodyPos = new Vector3f();  //render thread
+    
+    //Debug Overlay
+    private DebugOverlay overlay;
+    private final AllocationMeter allocMeter = new AllocationMeter();
+    private final RenderStats renderStats = new RenderStats();
+    private FrameProfiler profiler;
+    private volatile long frameNumber;
     
     //Stores Data for Objects    
-    private static class CelestialBody {
+    static class CelestialBody {
         String name;
         float orbitRadius, size, rotationSpeed, orbitSpeed;
-        int texture;
+        //Remaining orbital elements, radians; orbitRadius is the semi-major axis, orbitSpeed the mean motion
+        double eccentricity, inclination, ascendingNode, argPeriapsis, meanAnomaly;
+        //Top-down layouts: body size in each view, orbit radius in the scaled one
+        float realisticSize, scaledSize, scaledOrbitRadius;
+        double mass;  //solar masses, for NBodySimulation
+        TransitionStage flyBy;
+        String ringTextureFile;  //null for no rings
+        float ringInner, ringOuter, ringTilt;  //radii in planet radii, tilt in radians about the X axis
+        int id, layer;
+        String textureFile;
+        float[] color = {0.7f, 0.7f, 0.7f};
         float[] moonOrbitRadii;
         float[] moonSizes;
-        int[] moonTextures;
+        int[] moonIds, moonLayers;
+        int firstMoon;
+        String[] moonTextureFiles;
         float[] moonSpeeds;
+        float[] moonRotationSpeeds;  //null spins every moon at MOON_ROTATION_SPEED
+        
+        //Blank body for BodyCatalog to fill
+        CelestialBody() { }
         
         CelestialBody(String name, float orbitRadius, float size, float rotationSpeed, float orbitSpeed) {
             this.name = name;
+            this.textureFile = name.toLowerCase() + ".jpg";
             this.orbitRadius = orbitRadius;
             this.size = size;
             this.rotationSpeed = rotationSpeed;
@@ -78,17 +173,64 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         }*/
         
         
-        CelestialBody withMoons(float[] moonOrbitRadii, float[] moonSizes, int[] moonTextures, float[] moonSpeeds) {
+        CelestialBody withMoons(float[] moonOrbitRadii, float[] moonSizes, String[] moonTextureFiles, float[] moonSpeeds) {
             this.moonOrbitRadii = moonOrbitRadii;
             this.moonSizes = moonSizes;
-            this.moonTextures = moonTextures;
+            this.moonTextureFiles = moonTextureFiles;
             this.moonSpeeds = moonSpeeds;
             return this;
         }
+        
+        //(e, i, node, periapsis, M at ORBIT_EPOCH), angles in degrees
+        CelestialBody withElements(double e, double i, double node, double periapsis, double meanAnomaly) {
+            this.eccentricity = e;
+            this.inclination = Math.toRadians(i);
+            this.ascendingNode = Math.toRadians(node);
+            this.argPeriapsis = Math.toRadians(periapsis);
+            this.meanAnomaly = Math.toRadians(meanAnomaly);
+            return this;
+        }
+        
+        //Placeholder color drawn until the body's texture has streamed in
+        CelestialBody withColor(float r, float g, float b) {
+            this.color = new float[]{r, g, b};
+            return this;
+        }
+        
+        CelestialBody withMass(double solarMasses) {
+            this.mass = solarMasses;
+            return this;
+        }
+        
+        CelestialBody withTopDown(float realisticSize, float scaledSize, float scaledOrbitRadius) {
+            this.realisticSize = realisticSize;
+            this.scaledSize = scaledSize;
+            this.scaledOrbitRadius = scaledOrbitRadius;
+            return this;
+        }
+        
+        //(endOffset, cp1, cp2, camDist)
+        CelestialBody withFlyBy(float endOffset, float cp1, float cp2, float camDist) {
+            this.flyBy = new TransitionStage(endOffset, cp1, cp2, camDist);
+            return this;
+        }
+        
+        //Radial strip texture (inner edge at u = 0, alpha the ring density), radii in planet radii, tilt in degrees
+        CelestialBody withRings(String textureFile, float inner, float outer, float tilt) {
+            this.ringTextureFile = textureFile;
+            this.ringInner = inner;
+            this.ringOuter = outer;
+            this.ringTilt = (float) Math.toRadians(tilt);
+            return this;
+        }
+        
+        float getMoonRotationSpeed(int moon) {
+            return moonRotationSpeeds == null ? MOON_ROTATION_SPEED : moonRotationSpeeds[moon];
+        }
     }
     
     //Stores Data for Fly-By
-    private static class TransitionStage {
+    static class TransitionStage {
         float endOffset, controlPoint1, controlPoint2, camDist;
         TransitionStage(float endOffset, float cp1, float cp2, float camDist) {
             this.endOffset = endOffset;
@@ -99,7 +241,7 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
     }
     
     //Stores Control Points for Bezier Calculation
-    private static class PathData {
+    static class PathData {
         Vector3f p0 = new Vector3f();
         Vector3f p1 = new Vector3f();
         Vector3f p2 = new Vector3f();
@@ -114,8 +256,11 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
     }
     
     public Code() {
-        setTitle("Solar System");
-        setSize(1000, 1000);
+        //Before the frame is shown: init() runs on another thread as soon as the panel is realized
+        clock = new SimulationClock();
+        stageStartTime = clock.getRealTime();
+        frame = new JFrame("Solar System");
+        frame.setSize(1000, 1000);
         myPanel = new GLJPanel();
         myPanel.addGLEventListener(this);
         myPanel.addKeyListener(this);
@@ -123,79 +268,334 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         myPanel.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) { myPanel.requestFocus(); }
         });
-        this.add(myPanel);
-        this.setVisible(true);
-        this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.add(myPanel);
+        overlay = new DebugOverlay(myPanel);
+        overlay.addLine(() -> allocMeter.describe());
+        overlay.addLine(() -> "first frame: " + firstFrameMillis + " ms, textures: "
+                              + (texturesReadyMillis < 0 ? "loading" : texturesReadyMillis + " ms"));
+        overlay.addLine(() -> textureStreamer == null ? "" : "body textures: "
+                              + (textureStreamer.isCompressed() ? "compressed" : "RGBA8") + ", "
+                              + textureStreamer.getTextureBytes() / (1024 * 1024) + " MB");
+        overlay.addLine(() -> profiler == null ? "" : profiler.describe());
+        overlay.addLine(() -> inputLatency.describe());
+        overlay.addLine(() -> minorBodies == null ? "" : "minor bodies: " + minorBodies.getCount());
+        frame.setVisible(true);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         myPanel.requestFocus();
-        startTime = stageStartTime = System.currentTimeMillis();       
         animator = new Animator(myPanel);
         animator.start();
     }
     
-    //(name, orbitRadius, size, rotationSpeed, orbitSpeed)
+    //Windowless instance for HeadlessBenchmark; the caller owns the drawable and the clock.
+    //There is no simulation thread: each frame steps the simulation by exactly frameStep first.
+    Code(SimulationClock clock, double frameStep) {
+        this.clock = clock;
+        this.frameStep = frameStep;
+        stageStartTime = clock.getRealTime();
+    }
+    
+    //-Dcatalog=<file> reads the bodies from a BodyCatalog; without it the built-in nine planets are used
     private void initializePlanets() {
-        planets = new CelestialBody[] {
-            new CelestialBody("Mercury", 40.0f, 0.6f, 1.0f, 0.4f),   
-            new CelestialBody("Venus", 80.0f, 0.95f, 0.8f, 0.3f),    
+        String catalogFile = System.getProperty("catalog");
+        if (catalogFile != null) {
+            long start = System.nanoTime();
+            catalog = BodyCatalog.open(catalogFile);
+            planets = catalog.createPlanets();
+            orbits = createOrbits(planets, catalog.getEpoch());
+            System.out.printf("Catalog '%s': %d planets, %d moons, %d minor bodies, opened in %.2f ms%n", catalogFile,
+                              catalog.getPlanetCount(), catalog.getMoonCount(), catalog.getMinorCount(),
+                              (System.nanoTime() - start) / 1e6);
+        } else {
+            planets = createPlanets();
+            orbits = createOrbits(planets);
+        }
+        
+        //Stable ids (sun = 0) so each body keeps its LOD level between frames
+        int nextId = SUN_ID + 1;
+        for (CelestialBody planet : planets) {
+            planet.id = nextId++;
+        }
+        for (CelestialBody planet : planets) {
+            if (planet.moonOrbitRadii == null) continue;
+            planet.moonIds = new int[planet.moonOrbitRadii.length];
+            for (int m = 0; m < planet.moonIds.length; m++) {
+                planet.moonIds[m] = nextId++;
+            }
+        }
+        
+        //Flatten the moons, in planet order, for the body state stage
+        float[] rotationSpeeds = new float[planets.length];
+        int moonCount = 0;
+        for (int i = 0; i < planets.length; i++) {
+            rotationSpeeds[i] = planets[i].rotationSpeed;
+            planets[i].firstMoon = moonCount;
+            if (planets[i].moonOrbitRadii != null) moonCount += planets[i].moonOrbitRadii.length;
+        }
+        float[] moonRadii = new float[moonCount], moonSpeeds = new float[moonCount], moonSpins = new float[moonCount];
+        for (CelestialBody planet : planets) {
+            if (planet.moonOrbitRadii == null) continue;
+            for (int m = 0; m < planet.moonOrbitRadii.length; m++) {
+                moonRadii[planet.firstMoon + m] = planet.moonOrbitRadii[m];
+                moonSpeeds[planet.firstMoon + m] = planet.moonSpeeds[m];
+                moonSpins[planet.firstMoon + m] = planet.getMoonRotationSpeed(m);
+            }
+        }
+        bodyState = new BodyStateUpdater(orbits, rotationSpeeds, moonRadii, moonSpeeds, moonSpins,
+                                         ForkJoinPool.commonPool());
+        //-Dephemeris=<file> (written by ChebyshevEphemeris) serves planet positions for the times it covers
+        String ephemerisFile = System.getProperty("ephemeris");
+        if (ephemerisFile != null) {
+            ChebyshevEphemeris ephemeris = ChebyshevEphemeris.open(ephemerisFile);
+            bodyState.setEphemeris(ephemeris);
+            System.out.printf("Ephemeris '%s': %d bodies, %.1f hours from %.0f%n", ephemerisFile, ephemeris.getBodyCount(),
+                              (ephemeris.getEnd() - ephemeris.getStart()) / 36000.0, ephemeris.getStart() / 10.0);
+        }
+        if (Boolean.getBoolean("nbody")) setupNBody();
+    }
+    
+    //Physical mode starts from the Kepler positions at the clock's current time, with each planet's
+    //velocity that of a real orbit of its shape; moons and spins stay scripted
+    private void setupNBody() {
+        nbody = new NBodySimulation(planets.length + 1, ForkJoinPool.commonPool());
+        nbody.setTime(clock.getTime() * 10.0);
+        nbody.add(NBodySimulation.GM_SUN, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+        for (int i = 0; i < planets.length; i++) {
+            nbody.addOrbit(orbits, i, planets[i].mass * NBodySimulation.GM_SUN, 0, stateVector);
+        }
+        nbody.removeMomentum();
+    }
+    
+    //Planets take the integrated positions, relative to the sun (which now wobbles) so it stays at the origin
+    private void updateNBody(double gt) {
+        KeplerPropagator minor = minorBodies;
+        if (minor != null && !nbodyHasMinors) {
+            for (int k = 0; k < minor.getCount(); k++) {
+                nbody.addOrbit(minor, k, MINOR_BODY_MASS * NBodySimulation.GM_SUN, 0, stateVector);
+            }
+            nbodyHasMinors = true;
+        }
+        //Warp is capped to keep this within one advance(); a bigger jump just leaves the bodies behind gt
+        nbody.advance(gt - nbody.getTime());
+        nbody.copyPositions(1, planets.length + 1, 0, bodies.positions, 0);
+        if (nbodyHasMinors) nbody.publishPositions(planets.length + 1, nbody.getCount(), 0);
+    }
+    
+    private void uploadMinorPositions(float[] xyz, int count) {
+        asteroidRenderer.uploadPositions((GL4) GLContext.getCurrentGL(), xyz, count);
+    }
+    
+    //Asteroids and other small bodies: the catalog's minor bodies plus -Dmpcorb=<file>, an MPC orbit
+    //file, imported on a background thread so a big file doesn't hold up the first frame
+    private void loadMinorBodies() {
+        String mpcorbFile = System.getProperty("mpcorb");
+        BodyCatalog catalog = this.catalog;
+        if (mpcorbFile == null && (catalog == null || catalog.getMinorCount() == 0)) return;
+        Thread loader = new Thread(() -> {
+            long start = System.nanoTime();
+            KeplerPropagator minor = new KeplerPropagator(catalog == null ? 1 : catalog.getMinorCount());
+            if (catalog != null) {
+                catalog.addOrbits(minor, catalog.getFirstMinor(), catalog.getFirstMinor() + catalog.getMinorCount());
+            }
+            if (mpcorbFile != null) {
+                MpcorbImporter.importFile(mpcorbFile, minor, java.lang.Runtime.getRuntime().availableProcessors());
+            }
+            minorBodies = minor;
+            System.out.printf("%d minor bodies loaded in %.0f ms%n", minor.getCount(), (System.nanoTime() - start) / 1e6);
+        }, "minor-body-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    //(name, orbitRadius, size, rotationSpeed, orbitSpeed)
+    //Elements are the J2000 ecliptic values; the scene keeps its own orbit radii and speeds
+    //Masses (solar masses, moons included) only matter with -Dnbody=true
+    //Top-down is (realistic size, scaled size, scaled orbit radius), fly-by (endOffset, cp1, cp2, camDist)
+    static CelestialBody[] createPlanets() {
+        return new CelestialBody[] {
+            new CelestialBody("Mercury", 40.0f, 0.6f, 1.0f, 0.4f)   
+                .withElements(0.2056, 7.005, 48.331, 29.127, 174.793)
+                .withColor(0.55f, 0.53f, 0.5f)
+                .withMass(1.660e-7)
+                .withTopDown(0.2f, 1.5f, 8.0f)
+                .withFlyBy(2.0f, 15.0f, 0.7f, 3.0f),
+            new CelestialBody("Venus", 80.0f, 0.95f, 0.8f, 0.3f)    
+                .withElements(0.0068, 3.395, 76.680, 54.923, 50.377)
+                .withColor(0.85f, 0.75f, 0.55f)
+                .withMass(2.448e-6)
+                .withTopDown(0.48f, 2.0f, 12.0f)
+                .withFlyBy(3.0f, 15.0f, 0.7f, 3.5f),
             new CelestialBody("Earth", 107.0f, 1.5f, 0.6f, 0.2f)      
+                .withElements(0.0167, 0.000, 0.000, 102.938, 357.527)
+                .withColor(0.25f, 0.4f, 0.7f)
+                .withMass(3.040e-6)
+                .withTopDown(0.5f, 2.2f, 16.0f)
+                .withFlyBy(4.0f, 20.0f, 0.7f, 4.0f)
                 .withMoons(
                     new float[]{1.0f},
                     new float[]{0.5f},  
-                    new int[]{0},
+                    new String[]{"moon.jpg"},
                     new float[]{0.3f}
                 ),
-            new CelestialBody("Mars", 150.0f, 0.85f, 0.7f, 0.1f),    
+            new CelestialBody("Mars", 150.0f, 0.85f, 0.7f, 0.1f)    
+                .withElements(0.0934, 1.850, 49.560, 286.497, 19.390)
+                .withColor(0.75f, 0.4f, 0.25f)
+                .withMass(3.227e-7)
+                .withTopDown(0.27f, 1.8f, 20.0f)
+                .withFlyBy(5.0f, 25.0f, 0.7f, 5.0f),
             new CelestialBody("Jupiter", 520.0f, 4.0f, 0.4f, 0.05f)   
+                .withElements(0.0484, 1.304, 100.474, 274.255, 19.668)
+                .withColor(0.8f, 0.7f, 0.55f)
+                .withMass(9.548e-4)
+                .withTopDown(5.5f, 5.0f, 30.0f)
+                .withFlyBy(20.0f, 100.0f, 0.5f, 8.0f)
                 .withMoons(
                     new float[]{2.0f, 3.0f, 4.0f, 5.5f},
                     new float[]{0.29f, 0.24f, 0.41f, 0.38f},  
-                    new int[]{0, 0, 0, 0},
+                    new String[]{"io.jpg", "europa.jpg", "ganymede.jpg", "callisto.jpg"},
                     new float[]{0.8f, 0.5f, 0.35f, 0.2f}
                 ),
-            new CelestialBody("Saturn", 950.0f, 3.0f, 0.3f, 0.03f),  
-            new CelestialBody("Uranus", 1920.0f, 2.4f, 0.25f, 0.02f), 
-            new CelestialBody("Neptune", 3000.0f, 2.0f, 0.2f, 0.01f),
+            new CelestialBody("Saturn", 950.0f, 3.0f, 0.3f, 0.03f)  
+                .withElements(0.0539, 2.486, 113.662, 338.936, 317.355)
+                .withColor(0.85f, 0.78f, 0.6f)
+                .withMass(2.859e-4)
+                .withTopDown(4.6f, 4.5f, 40.0f)
+                .withFlyBy(25.0f, 150.0f, 0.5f, 10.0f)
+                .withRings("saturns_rings.png", 1.24f, 2.27f, 26.7f),
+            new CelestialBody("Uranus", 1920.0f, 2.4f, 0.25f, 0.02f) 
+                .withElements(0.0473, 0.773, 74.017, 96.937, 142.284)
+                .withColor(0.6f, 0.8f, 0.85f)
+                .withMass(4.366e-5)
+                .withTopDown(2.0f, 3.5f, 50.0f)
+                .withFlyBy(8.0f, 300.0f, 0.5f, 6.0f),
+            new CelestialBody("Neptune", 3000.0f, 2.0f, 0.2f, 0.01f)
+                .withElements(0.0086, 1.770, 131.784, 273.181, 259.915)
+                .withColor(0.3f, 0.45f, 0.8f)
+                .withMass(5.151e-5)
+                .withTopDown(1.95f, 3.5f, 60.0f)
+                .withFlyBy(8.0f, 400.0f, 0.5f, 6.0f),
             new CelestialBody("Pluto", 3950.0f, 0.4f, 0.15f, 0.008f) 
+                .withElements(0.2488, 17.140, 110.304, 113.765, 14.860)
+                .withColor(0.75f, 0.68f, 0.6f)
+                .withMass(7.396e-9)
+                .withTopDown(0.1f, 1.2f, 70.0f)
+                .withFlyBy(2.5f, 500.0f, 0.5f, 3.5f)
         };
     }
     
-    //(endOffset, cp1, cp2, camDist)
+    //J2000 (2000-01-01 12:00 TT) in gt units, the epoch each planet's mean anomaly is given at
+    static final double ORBIT_EPOCH = 946728000.0 * 10.0;
+    
+    static KeplerPropagator createOrbits(CelestialBody[] bodies) {
+        return createOrbits(bodies, ORBIT_EPOCH);
+    }
+    
+    static KeplerPropagator createOrbits(CelestialBody[] bodies, double epoch) {
+        KeplerPropagator propagator = new KeplerPropagator(bodies.length);
+        for (CelestialBody body : bodies) {
+            propagator.add(body.orbitRadius, body.eccentricity, body.inclination, body.ascendingNode,
+                           body.argPeriapsis, body.meanAnomaly, body.orbitSpeed, epoch);
+        }
+        return propagator;
+    }
+    
+    //One fly-by stage per planet, in tour order
     private void initializeStages() {
-        stages = new TransitionStage[] {
-            new TransitionStage(2.0f, 15.0f, 0.7f, 3.0f),   // Mercury
-            new TransitionStage(3.0f, 15.0f, 0.7f, 3.5f),   // Venus
-            new TransitionStage(4.0f, 20.0f, 0.7f, 4.0f),   // Earth
-            new TransitionStage(5.0f, 25.0f, 0.7f, 5.0f),   // Mars
-            new TransitionStage(20.0f, 100.0f, 0.5f, 8.0f), // Jupiter
-            new TransitionStage(25.0f, 150.0f, 0.5f, 10.0f),// Saturn
-            new TransitionStage(8.0f, 300.0f, 0.5f, 6.0f),  // Uranus
-            new TransitionStage(8.0f, 400.0f, 0.5f, 6.0f),  // Neptune
-            new TransitionStage(2.5f, 500.0f, 0.5f, 3.5f)   // Pluto
-        };
+        stages = new TransitionStage[planets.length];
+        for (int i = 0; i < planets.length; i++) {
+            stages[i] = planets[i].flyBy;
+        }
     }
 
     
      public void display(GLAutoDrawable drawable) {
+        allocMeter.beginFrame();
+        renderStats.beginFrame();
+        FlightEvents.FrameEvent frameEvent = FlightEvents.FRAME.isEnabled() ? new FlightEvents.FrameEvent() : null;
+        if (frameEvent != null) frameEvent.begin();
+        inputLatency.beginFrame();
         GL4 gl = (GL4) GLContext.getCurrentGL();
+        profiler.beginFrame(gl);
+        profiler.begin(gl, FrameProfiler.UPLOAD);
+        textureStreamer.uploadPending(gl, TEXTURE_UPLOAD_BUDGET_NANOS);
+        profiler.end(gl);
         gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
         
-        float tf = (System.currentTimeMillis() - stageStartTime) / 1000.0f;
-        float gt = (float)(System.currentTimeMillis() / 100.0);
+        //Newest simulation step, blended with the one before it by how far into the next step we are
+        profiler.begin(gl, FrameProfiler.UPDATE);
+        if (frameStep > 0.0) simulation.step(frameStep);
+        SimulationThread.Step step = simulation.acquire();
+        view.interpolate(step.previous, step.current, frameStep > 0.0 ? 1.0f : simulation.getAlpha(step));
+        if (view.topDown != projectedTopDown || view.scaled != projectedScaled) {
+            projectedTopDown = view.topDown;
+            projectedScaled = view.scaled;
+            projectionNeedsUpdate = true;
+        }
+        double gt = view.gt;
+        inputLatency.frameShows(view);
+        KeplerPropagator minor = minorBodies;
+        if (nbody != null) {
+            long version = nbody.getPublishedVersion();
+            if (version != uploadedMinorVersion) {
+                uploadedMinorVersion = version;
+                nbody.readPublished(minorPositionUploader);
+            }
+        } else if (minor != null && minor.getCount() != asteroidRenderer.getCount()) {
+            asteroidRenderer.upload(gl, minor, gt);
+        }
+        profiler.end(gl);
         
         gl.glUseProgram(renderingProgram);
         
-        if (topDownMode) {
+        if (view.topDown) {
             displayTopDown(gl, gt);
         } else {
-            displayNavigation(gl, tf, gt);
+            displayNavigation(gl, gt);
+        }
+        profiler.endFrame();
+        if (frameEvent != null) {
+            frameEvent.frame = frameNumber;
+            frameEvent.stage = view.stage;
+            frameEvent.topDown = view.topDown;
+            frameEvent.bodies = bodyRenderer.getInstanceCount();
+            frameEvent.drawCalls = renderStats.getDrawCalls();
+            frameEvent.triangles = renderStats.getTriangles();
+            frameEvent.texturesResident = textureStreamer.getLoadedCount();
+            frameEvent.commit();
+        }
+        frameNumber++;
+        allocMeter.endFrame();
+        recordStartupTimes();
+     }
+    
+     //Time-to-first-frame and time until every body texture is resident, reported once each
+     private void recordStartupTimes() {
+        if (firstFrameMillis < 0) {
+            firstFrameMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            System.out.println("First frame after " + firstFrameMillis + " ms");
+        }
+        if (texturesReadyMillis < 0 && textureStreamer.isComplete()) {
+            texturesReadyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            System.out.println("All " + textureStreamer.getLoadedCount() + " body textures resident after "
+                               + texturesReadyMillis + " ms");
+            requestHighResolutionTextures();
+        }
+     }
+    
+     //Once the first pass is resident, every body texture is decoded again at the -Dtextures.hires size
+     //and swapped in as it lands, growing the array with the first
+     private void requestHighResolutionTextures() {
+        if (highResolution == null) return;
+        for (int layer = 0; layer < bodyTextureFiles.size(); layer++) {
+            textureStreamer.requestResolution(layer, bodyTextureFiles.get(layer), highResolution[0], highResolution[1]);
         }
+        System.out.println("Streaming body textures at " + highResolution[0] + "x" + highResolution[1]);
      }
     
      //Top-Down Mode
-     private void displayTopDown(GL4 gl, float gt) {
+     private void displayTopDown(GL4 gl, double gt) {
         if (projectionNeedsUpdate) {
-            aspect = (float) myPanel.getWidth() / (float) myPanel.getHeight();
-            float viewSize = scaledViewMode ? 100.0f : 450.0f;
+            aspect = (float) surfaceWidth / (float) surfaceHeight;
+            float viewSize = view.scaled ? 100.0f : 450.0f;
             pMat.identity().setOrtho(-viewSize * aspect, viewSize * aspect, -viewSize, viewSize, 0.1f, 5000.0f);
             gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
             projectionNeedsUpdate = false;
@@ -209,7 +609,7 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         
         setupVertexAttributes(gl);
         
-        if (scaledViewMode) {
+        if (view.scaled) {
             renderTopDownView(gl, gt, true);
         } else {
             renderTopDownView(gl, gt, false);
@@ -219,132 +619,199 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
     }
     
     //Navagation Mode
-    private void displayNavigation(GL4 gl, float tf, float gt) {
+    private void displayNavigation(GL4 gl, double gt) {
         if (projectionNeedsUpdate) {
-            aspect = (float) myPanel.getWidth() / (float) myPanel.getHeight();
+            aspect = (float) surfaceWidth / (float) surfaceHeight;
             pMat.identity().setPerspective((float) Math.toRadians(60.0f), aspect, 0.1f, 5000.0f);
             gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
             projectionNeedsUpdate = false;
         }
         
-        NavigationState state = calculateNavigationState(tf, gt);
-        
-        vMat.identity().lookAt(cameraX, cameraY, cameraZ, state.lookAtX, state.lookAtY, state.lookAtZ, 0, 1, 0);
+        vMat.identity().lookAt(view.cameraX, view.cameraY, view.cameraZ, view.lookAtX, view.lookAtY, view.lookAtZ, 0, 1, 0);
         mvStack.pushMatrix();
         mvStack.mul(vMat);
         setupVertexAttributes(gl);
         
         renderSkydome(gl);
         
-        if (state.drawStar) {
-            drawShootingStar(gl, state.starX, state.starY, state.starZ, state.prevX, state.prevY, state.prevZ);
+        if (view.drawStar) {
+            profiler.begin(gl, FrameProfiler.STAR);
+            drawShootingStar(gl, view.starX, view.starY, view.starZ, view.prevX, view.prevY, view.prevZ);
             setupVertexAttributes(gl);
+            profiler.end(gl);
         }
         
-        if (currentStage <= 1) {
-            renderSphere(gl, 0, 0, 0, 2.0f, gt * 0.5f, sunTexture);
+        profiler.begin(gl, FrameProfiler.BODIES);
+        bodyRenderer.begin(vMat, pMat, surfaceHeight);
+        if (view.stage <= 1) {
+            bodyRenderer.add(SUN_ID, 0, 0, 0, 2.0f, spin(gt, 0.5f), sunLayer);
         }
         
         renderVisibleBodies(gl, gt);
+        drawBodies(gl);
+        profiler.end(gl);
+        
+        renderRings(gl, gt);
+        
+        profiler.begin(gl, FrameProfiler.ASTEROIDS);
+        asteroidRenderer.draw(gl, mvStack, gt, 2.0f, radialKnots, 0, renderStats);
+        profiler.end(gl);
         mvStack.popMatrix();
     }
 
 
     public void init(GLAutoDrawable drawable) {
         GL4 gl = (GL4) GLContext.getCurrentGL();
+        surfaceWidth = Math.max(drawable.getSurfaceWidth(), 1);
+        surfaceHeight = Math.max(drawable.getSurfaceHeight(), 1);
         renderingProgram = Utils.createShaderProgram("code/vertShader.glsl", "code/fragShader.glsl");
         
         gl.glUseProgram(renderingProgram);
         mvLoc = gl.glGetUniformLocation(renderingProgram, "mv_matrix");
         pLoc = gl.glGetUniformLocation(renderingProgram, "p_matrix");
         colorLoc = gl.glGetUniformLocation(renderingProgram, "color");
+        instancedLoc = gl.glGetUniformLocation(renderingProgram, "instanced");
         int texLoc = gl.glGetUniformLocation(renderingProgram, "samp");
         if (texLoc >= 0) gl.glUniform1i(texLoc, 0);
+        int texArrayLoc = gl.glGetUniformLocation(renderingProgram, "bodyTextures");
+        if (texArrayLoc >= 0) gl.glUniform1i(texArrayLoc, 1);
         
         gl.glEnable(GL_DEPTH_TEST);
         gl.glDepthFunc(GL_LEQUAL);
         gl.glEnable(GL_CULL_FACE);
         gl.glFrontFace(GL_CCW);
         
-        aspect = (float) myPanel.getWidth() / (float) myPanel.getHeight();
+        aspect = (float) surfaceWidth / (float) surfaceHeight;
         pMat.identity().setPerspective((float) Math.toRadians(60.0f), aspect, 0.1f, 5000.0f);
         
-        startTime = System.currentTimeMillis();
-        
         initializePlanets();
+        loadMinorBodies();
         initializeStages();
         setupVertices();
         setupOrbitLines();
         loadTextures();
+        bodyRenderer = new InstancedBodyRenderer(vbo[4], sphereLod, textureStreamer, 32);
+        asteroidRenderer = new AsteroidRenderer(renderingProgram, vbo[6], vbo[7]);
+        setupRadialKnots();
+        setupRings();
+        //-Dprofile.csv=<file> adds a once-per-second phase log to the overlay's live numbers
+        profiler = new FrameProfiler(System.getProperty("profile.csv"));
         
         cameraX = 0.0f; cameraY = 0.0f; cameraZ = 8.0f;
         prevCameraX = cameraX; prevCameraY = cameraY; prevCameraZ = cameraZ;
+        
+        //First step runs here so the first frame has a state; windowed runs then step on their own thread
+        view = new WorldState(bodyState.newSnapshot());
+        simulation = new SimulationThread(this::simulate, clock.getFixedStep(),
+                                          () -> new WorldState(bodyState.newSnapshot()));
+        simulation.step(0.0);
+        if (frameStep <= 0.0) simulation.start();
     }
 
     
+    //Bodies share one texture array; layers are handed out in load order: sun, planets, then moons
+    //Body textures decode on worker threads and stream in after the first frame
+    //Precompressed .ktx copies (made by TextureConverter) are used instead when every body has one
     private void loadTextures() {
-        sunTexture = Utils.loadTexture("sun.jpg");
-        shootingStarTexture = Utils.loadTexture("star.png");  
-        skydomeTexture = Utils.loadTexture("skydome.png");
-        
-        String[] textureFiles = {"mercury.jpg", "venus.jpg", "earth.jpg", "mars.jpg",
-                                 "jupiter.jpg", "saturn.jpg", "uranus.jpg", "neptune.jpg", "pluto.jpg"};
-        for (int i = 0; i < planets.length; i++) {
-            planets[i].texture = Utils.loadTexture(textureFiles[i]);
+        shootingStarTexture = loadTexture("star.png");  
+        skydomeTexture = loadTexture("skydome.png");
+        
+        ArrayList<String> textureFiles = new ArrayList<>();
+        ArrayList<float[]> colors = new ArrayList<>();
+        sunLayer = textureFiles.size();
+        textureFiles.add("sun.jpg");
+        colors.add(SUN_COLOR);
+        for (CelestialBody planet : planets) {
+            planet.layer = textureFiles.size();
+            textureFiles.add(planet.textureFile);
+            colors.add(planet.color);
+        }
+        for (CelestialBody planet : planets) {
+            if (planet.moonTextureFiles == null) continue;
+            planet.moonLayers = new int[planet.moonTextureFiles.length];
+            for (int m = 0; m < planet.moonLayers.length; m++) {
+                planet.moonLayers[m] = textureFiles.size();
+                textureFiles.add(planet.moonTextureFiles[m]);
+                colors.add(MOON_COLOR);
+            }
         }
         
-        planets[2].moonTextures[0] = Utils.loadTexture("moon.jpg");
-        planets[4].moonTextures[0] = Utils.loadTexture("io.jpg");
-        planets[4].moonTextures[1] = Utils.loadTexture("europa.jpg");
-        planets[4].moonTextures[2] = Utils.loadTexture("ganymede.jpg");
-        planets[4].moonTextures[3] = Utils.loadTexture("callisto.jpg");
+        ArrayList<String> ktxFiles = new ArrayList<>();
+        for (String file : textureFiles) ktxFiles.add(TextureConverter.toKtxName(file));
+        KtxFile compressedLayout = KtxFile.readCommonHeader(ktxFiles);
+        if (compressedLayout != null) {
+            textureStreamer = new TextureStreamer(compressedLayout, textureFiles.size());
+            textureFiles = ktxFiles;
+        } else {
+            textureStreamer = new TextureStreamer(BODY_TEXTURE_WIDTH, BODY_TEXTURE_HEIGHT, textureFiles.size());
+        }
+        bodyTextureFiles = textureFiles;
+        for (int layer = 0; layer < textureFiles.size(); layer++) {
+            float[] c = colors.get(layer);
+            textureStreamer.request(layer, textureFiles.get(layer), c[0], c[1], c[2]);
+        }
+        highResolution = parseHighResolution(System.getProperty("textures.hires"));
     }
     
-    //Sphere Vertices
+    //-Dtextures.hires=WxH (e.g. 4096x2048), checked here at startup; a bad value is reported and the
+    //textures stay at their first-pass size, rather than failing later on the render thread
+    private int[] parseHighResolution(String size) {
+        if (size == null) return null;
+        if (textureStreamer.isCompressed()) {
+            System.err.println("Ignoring -Dtextures.hires=" + size + ": body textures are precompressed .ktx files");
+            return null;
+        }
+        String[] parts = size.toLowerCase().split("x");
+        try {
+            if (parts.length == 2) {
+                int width = Integer.parseInt(parts[0].trim()), height = Integer.parseInt(parts[1].trim());
+                if (textureStreamer.acceptsResolution(width, height)) return new int[] {width, height};
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        System.err.println("Ignoring -Dtextures.hires=" + size + ": expected WxH at a power-of-two multiple of the "
+                           + textureStreamer.getWidth() + "x" + textureStreamer.getHeight() + " texture array");
+        return null;
+    }
+    
+    private static int loadTexture(String file) {
+        String ktx = TextureConverter.toKtxName(file);
+        return new File(ktx).isFile() ? Utils.loadKtxTexture(ktx) : Utils.loadTexture(file);
+    }
+    
+    //Sphere Vertices (every LOD level's unique vertices + element buffer)
     private void setupVertices() {
         GL4 gl = (GL4) GLContext.getCurrentGL();
-        mySphere = new Sphere(48);
-        numSphereVerts = mySphere.getIndices().length;
+        sphereLod = new SphereLod();
         
-        int[] indices = mySphere.getIndices();
-        Vector3f[] vert = mySphere.getVertices();
-        Vector2f[] tex = mySphere.getTexCoords();
-        
-        float[] pvalues = new float[indices.length*3];
-        float[] tvalues = new float[indices.length*2];
-        
-        for (int i = 0; i < indices.length; i++) {
-            pvalues[i*3] = vert[indices[i]].x;
-            pvalues[i*3+1] = vert[indices[i]].y;
-            pvalues[i*3+2] = vert[indices[i]].z;
-            tvalues[i*2] = tex[indices[i]].x;
-            tvalues[i*2+1] = tex[indices[i]].y;
-        }
+        int[] indices = sphereLod.getIndices();
+        float[] pvalues = sphereLod.getPositions();
+        float[] tvalues = sphereLod.getTexCoords();
         
         // Square Vertices
         float[] squareVertices = {
-            // First triangle
             -0.5f, -0.5f, 0.0f,  // Bottom left
              0.5f, -0.5f, 0.0f,  // Bottom right
              0.5f,  0.5f, 0.0f,  // Top right
-            // Second triangle
-            -0.5f, -0.5f, 0.0f,  // Bottom left
-             0.5f,  0.5f, 0.0f,  // Top right
             -0.5f,  0.5f, 0.0f   // Top left
         };
         
         float[] squareTexCoords = {
-            // First triangle
             0.0f, 0.0f,  // Bottom left
             1.0f, 0.0f,  // Bottom right
             1.0f, 1.0f,  // Top right
-            // Second triangle
-            0.0f, 0.0f,  // Bottom left
-            1.0f, 1.0f,  // Top right
             0.0f, 1.0f   // Top left
         };
         
-        numSquareVerts = 6;
+        int[] squareIndices = { 0, 1, 2,  0, 2, 3 };
+        numSquareIndices = squareIndices.length;
+        
+        //Sphere and square indices share one element buffer, square after the sphere levels
+        int[] allIndices = new int[indices.length + squareIndices.length];
+        System.arraycopy(indices, 0, allIndices, 0, indices.length);
+        System.arraycopy(squareIndices, 0, allIndices, indices.length, squareIndices.length);
+        squareIndexOffset = indices.length * 4L;
         
         gl.glGenVertexArrays(vao.length, vao, 0);
         gl.glBindVertexArray(vao[0]);
@@ -365,44 +832,61 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         //Square Texture
         gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[3]);
         gl.glBufferData(GL_ARRAY_BUFFER, squareTexCoords.length*4, Buffers.newDirectFloatBuffer(squareTexCoords), GL_STATIC_DRAW);
+        
+        //Element Buffer (stays bound to vao[0])
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo[14]);
+        gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, allIndices.length*4, Buffers.newDirectIntBuffer(allIndices), GL_STATIC_DRAW);
     }
     
-    //Draw orbit lines in top-down mode
+    //Draw orbit lines in top-down mode; every planet's loop goes in vbo[5], one after another,
+    //so the catalog can hold any number of planets
     private void setupOrbitLines() {
         GL4 gl = (GL4) GLContext.getCurrentGL();
         int segments = 100;
         numOrbitVerts = segments;
         
+        float[] orbitVerts = new float[planets.length * segments * 3];
         for (int i = 0; i < planets.length; i++) {
-            float radius = planets[i].orbitRadius;
-            float[] orbitVerts = new float[segments * 3];
             for (int j = 0; j < segments; j++) {
-                float angle = (float)(2.0 * Math.PI * j / segments);
-                orbitVerts[j*3] = radius * (float)Math.cos(angle);
-                orbitVerts[j*3+1] = 0.0f;
-                orbitVerts[j*3+2] = radius * (float)Math.sin(angle);
+                orbits.orbitPoint(i, 2.0 * Math.PI * j / segments, orbitVerts, (i*segments + j)*3);
             }
-            gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[5 + i]);
-            gl.glBufferData(GL_ARRAY_BUFFER, orbitVerts.length*4, Buffers.newDirectFloatBuffer(orbitVerts), GL_STATIC_DRAW);
         }
+        gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[5]);
+        gl.glBufferData(GL_ARRAY_BUFFER, orbitVerts.length*4, Buffers.newDirectFloatBuffer(orbitVerts), GL_STATIC_DRAW);
+        //vbo[6] and vbo[7] hold the minor bodies' orbits (AsteroidRenderer)
     }
     
-    private void renderSphere(GL4 gl, float x, float y, float z, float scale, float rotation, int texture) {
-        mvStack.pushMatrix();
-        mvStack.translate(x, y, z);
-        mvStack.pushMatrix();
-        mvStack.rotate(rotation, 0.0f, 1.0f, 0.0f);
-        mvStack.scale(scale, scale, scale);
-        gl.glActiveTexture(GL_TEXTURE0);
-        gl.glBindTexture(GL_TEXTURE_2D, texture);
+    //The scaled view shrinks each planet's orbit by its own factor; minor bodies between two planets
+    //get a factor interpolated between theirs (the innermost MAX_RADIAL_KNOTS planets are used)
+    private void setupRadialKnots() {
+        CelestialBody[] byAxis = planets.clone();
+        Arrays.sort(byAxis, (a, b) -> Float.compare(a.orbitRadius, b.orbitRadius));
+        radialKnotCount = Math.min(byAxis.length, AsteroidRenderer.MAX_RADIAL_KNOTS);
+        for (int i = 0; i < radialKnotCount; i++) {
+            radialKnots[i*2] = byAxis[i].orbitRadius;
+            radialKnots[i*2 + 1] = byAxis[i].scaledOrbitRadius / byAxis[i].orbitRadius;
+        }
+    }
+    
+    private void setupRings() {
+        ringRenderers = new RingRenderer[planets.length];
+        for (int i = 0; i < planets.length; i++) {
+            CelestialBody planet = planets[i];
+            if (planet.ringTextureFile == null) continue;
+            ringRenderers[i] = new RingRenderer(renderingProgram, planet.ringTextureFile, planet.ringInner, planet.ringOuter);
+        }
+    }
+
+    //Draws everything queued in bodyRenderer with the current view on top of mvStack
+    private void drawBodies(GL4 gl) {
+        setupVertexAttributes(gl);
         gl.glUniformMatrix4fv(mvLoc, 1, false, mvStack.get(vals));
-        gl.glDrawArrays(GL_TRIANGLES, 0, numSphereVerts);
-        mvStack.popMatrix();
-        mvStack.popMatrix();
+        bodyRenderer.draw(gl, instancedLoc, renderStats);
     }
     
     
     private void renderSkydome(GL4 gl) {
+        profiler.begin(gl, FrameProfiler.SKYDOME);
         gl.glDepthMask(false);
         
         gl.glDisable(GL_CULL_FACE);
@@ -414,97 +898,140 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         gl.glActiveTexture(GL_TEXTURE0);
         gl.glBindTexture(GL_TEXTURE_2D, skydomeTexture);
         gl.glUniformMatrix4fv(mvLoc, 1, false, mvStack.get(vals));
-        gl.glDrawArrays(GL_TRIANGLES, 0, numSphereVerts);
+        gl.glDrawElements(GL_TRIANGLES, sphereLod.getIndexCount(SKYDOME_LOD), GL_UNSIGNED_INT,
+                          sphereLod.getIndexByteOffset(SKYDOME_LOD));
+        renderStats.draw(sphereLod.getIndexCount(SKYDOME_LOD) / 3);
         
         mvStack.popMatrix();
         
         gl.glDepthMask(true);
         gl.glEnable(GL_CULL_FACE);
+        profiler.end(gl);
     }
     
-    private void renderVisibleBodies(GL4 gl, float gt) {
+    private void renderVisibleBodies(GL4 gl, double gt) {
+        BodyStateUpdater.Snapshot bodies = view.bodies;
         for (int i = 0; i < planets.length; i++) {
             CelestialBody planet = planets[i];
-            Vector3f pos = getPlanetPosition(i, gt);
-            renderSphere(gl, pos.x, pos.y, pos.z, planet.size, gt * planet.rotationSpeed, planet.texture);
+            Vector3f pos = view.getBodyPosition(i, bodyPos);
+            bodyRenderer.add(planet.id, pos.x, pos.y, pos.z, planet.size, bodies.spins[i], planet.layer);
             
-            if (planet.moonTextures != null) {
-                for (int m = 0; m < planet.moonTextures.length; m++) {
-                    float moonAngle = gt * planet.moonSpeeds[m];
-                    float moonX = pos.x + (float)Math.sin(moonAngle) * planet.moonOrbitRadii[m];
-                    float moonZ = pos.z + (float)Math.cos(moonAngle) * planet.moonOrbitRadii[m];
-                    renderSphere(gl, moonX, 0, moonZ, planet.moonSizes[m], gt * 0.4f, planet.moonTextures[m]);
+            if (planet.moonOrbitRadii != null) {
+                for (int m = 0; m < planet.moonOrbitRadii.length; m++) {
+                    int moon = planet.firstMoon + m;
+                    float moonX = pos.x + bodies.moonOffsets[moon*2];
+                    float moonZ = pos.z + bodies.moonOffsets[moon*2 + 1];
+                    bodyRenderer.add(planet.moonIds[m], moonX, pos.y, moonZ, planet.moonSizes[m], bodies.moonSpins[moon], planet.moonLayers[m]);
                 }
             }
         }
     }
     
-    private void renderTopDownView(GL4 gl, float gt, boolean scaled) {
-        float[] planetSizes, orbitRadii;
+    private void renderTopDownView(GL4 gl, double gt, boolean scaled) {
         float orbitScale = 1.0f, moonOrbitScale = 1.5f;
         float sunSize;
         
         if (scaled) {
-            planetSizes = new float[]{1.5f, 2.0f, 2.2f, 1.8f, 5.0f, 4.5f, 3.5f, 3.5f, 1.2f};
-            orbitRadii = new float[]{8.0f, 12.0f, 16.0f, 20.0f, 30.0f, 40.0f, 50.0f, 60.0f, 70.0f};
             sunSize = 4.0f;
         } else {
-            
-            planetSizes = new float[]{0.2f, 0.48f, 0.5f, 0.27f, 5.5f, 4.6f, 2.0f, 1.95f, 0.1f};
-            orbitRadii = null;
             orbitScale = 0.1f;
             moonOrbitScale = 15.0f;
             sunSize = 5.0f;
         }
         
+        profiler.begin(gl, FrameProfiler.ORBITS);
         if (!scaled) mvStack.pushMatrix();
         if (!scaled) mvStack.scale(orbitScale, orbitScale, orbitScale);
         
-        for (int i = 0; i < 9; i++) {
+        gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[5]);
+        gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        gl.glDisableVertexAttribArray(1);
+        for (int i = 0; i < planets.length; i++) {
             if (scaled) {
                 mvStack.pushMatrix();
-                float scale = orbitRadii[i] / planets[i].orbitRadius;
+                float scale = planets[i].scaledOrbitRadius / planets[i].orbitRadius;
                 mvStack.scale(scale, scale, scale);
             }
-            gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[5 + i]);
-            gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-            gl.glDisableVertexAttribArray(1);
             gl.glUniformMatrix4fv(mvLoc, 1, false, mvStack.get(vals));
-            gl.glDrawArrays(GL_LINE_LOOP, 0, numOrbitVerts);
+            gl.glDrawArrays(GL_LINE_LOOP, i * numOrbitVerts, numOrbitVerts);
+            renderStats.draw(0);
             if (scaled) mvStack.popMatrix();
         }
         if (!scaled) mvStack.popMatrix();
+        profiler.end(gl);
+        
+        profiler.begin(gl, FrameProfiler.ASTEROIDS);
+        mvStack.pushMatrix();
+        if (!scaled) mvStack.scale(orbitScale, orbitScale, orbitScale);
+        asteroidRenderer.draw(gl, mvStack, gt, scaled ? 2.0f : 1.5f, radialKnots, scaled ? radialKnotCount : 0, renderStats);
+        mvStack.popMatrix();
+        profiler.end(gl);
         
+        profiler.begin(gl, FrameProfiler.BODIES);
         gl.glEnable(GL_TEXTURE_2D);
-        setupVertexAttributes(gl);
-        renderSphere(gl, 0, 0, 0, sunSize, gt * 0.5f, sunTexture);
+        bodyRenderer.begin(vMat, pMat, surfaceHeight);
+        bodyRenderer.add(SUN_ID, 0, 0, 0, sunSize, spin(gt, 0.5f), sunLayer);
         
         //Render planets and moons
+        BodyStateUpdater.Snapshot bodies = view.bodies;
         for (int i = 0; i < planets.length; i++) {
-            Vector3f pos = getPlanetPosition(i, gt);
-            float angle = (float)Math.atan2(pos.x, pos.z);
-            float px, pz;
+            Vector3f pos = view.getBodyPosition(i, bodyPos);
             
-            if (scaled) {
-                px = (float)Math.sin(angle) * orbitRadii[i];
-                pz = (float)Math.cos(angle) * orbitRadii[i];
-            } else {
-                px = pos.x * orbitScale;
-                pz = pos.z * orbitScale;
-            }
+            //Scaled mode shrinks each orbit uniformly to its display radius, matching its orbit line
+            float scale = scaled ? planets[i].scaledOrbitRadius / planets[i].orbitRadius : orbitScale;
+            float px = pos.x * scale, py = pos.y * scale, pz = pos.z * scale;
             
-            renderSphere(gl, px, 0, pz, planetSizes[i], gt * planets[i].rotationSpeed, planets[i].texture);
+            float size = scaled ? planets[i].scaledSize : planets[i].realisticSize;
+            bodyRenderer.add(planets[i].id, px, py, pz, size, bodies.spins[i], planets[i].layer);
             
-            if (planets[i].moonTextures != null) {
-                for (int m = 0; m < planets[i].moonTextures.length; m++) {
-                    float moonAngle = gt * planets[i].moonSpeeds[m];
-                    float moonOrbit = planets[i].moonOrbitRadii[m] * moonOrbitScale;
+            if (planets[i].moonOrbitRadii != null) {
+                for (int m = 0; m < planets[i].moonOrbitRadii.length; m++) {
+                    int moon = planets[i].firstMoon + m;
                     float moonSize = scaled ? 0.5f : 0.27f;
-                    renderSphere(gl, px + (float)Math.sin(moonAngle) * moonOrbit, 0,
-                               pz + (float)Math.cos(moonAngle) * moonOrbit, moonSize, gt * 0.4f, planets[i].moonTextures[m]);
+                    bodyRenderer.add(planets[i].moonIds[m], px + bodies.moonOffsets[moon*2] * moonOrbitScale, py,
+                               pz + bodies.moonOffsets[moon*2 + 1] * moonOrbitScale, moonSize, bodies.moonSpins[moon], planets[i].moonLayers[m]);
                 }
             }
         }
+        
+        drawBodies(gl);
+        profiler.end(gl);
+        
+        //Rings at the same placement and size, always the annulus from this far out
+        profiler.begin(gl, FrameProfiler.RINGS);
+        for (int i = 0; i < planets.length; i++) {
+            if (ringRenderers[i] == null) continue;
+            Vector3f pos = view.getBodyPosition(i, bodyPos);
+            float scale = scaled ? planets[i].scaledOrbitRadius / planets[i].orbitRadius : orbitScale;
+            float size = scaled ? planets[i].scaledSize : planets[i].realisticSize;
+            drawRing(gl, i, pos.x * scale, pos.y * scale, pos.z * scale, size, 0.0f, gt);
+        }
+        setupVertexAttributes(gl);
+        profiler.end(gl);
+    }
+    
+    //Fly-by rings, drawn after the bodies so they blend over them; close enough in, the annulus
+    //cross-fades to the particle field
+    private void renderRings(GL4 gl, double gt) {
+        profiler.begin(gl, FrameProfiler.RINGS);
+        for (int i = 0; i < planets.length; i++) {
+            if (ringRenderers[i] == null) continue;
+            Vector3f pos = view.getBodyPosition(i, bodyPos);
+            float distance = pos.distance(view.cameraX, view.cameraY, view.cameraZ);
+            float size = planets[i].size;
+            drawRing(gl, i, pos.x, pos.y, pos.z, size, RingRenderer.getNearWeight(distance / size), gt);
+        }
+        setupVertexAttributes(gl);
+        profiler.end(gl);
+    }
+    
+    private void drawRing(GL4 gl, int planet, float x, float y, float z, float size, float nearWeight, double gt) {
+        mvStack.pushMatrix();
+        mvStack.translate(x, y, z);
+        mvStack.rotateX(planets[planet].ringTilt);
+        mvStack.scale(size);
+        ringRenderers[planet].draw(gl, mvStack, mvLoc, vals, nearWeight, gt, renderStats);
+        mvStack.popMatrix();
     }
     
     private void drawShootingStar(GL4 gl, float starX, float starY, float starZ, float prevX, float prevY, float prevZ) {
@@ -538,9 +1065,9 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         gl.glEnableVertexAttribArray(1);
         
         //Calculate Camera Direction 
-        float camDirX = cameraX - starX;
-        float camDirY = cameraY - starY;
-        float camDirZ = cameraZ - starZ;
+        float camDirX = view.cameraX - starX;
+        float camDirY = view.cameraY - starY;
+        float camDirZ = view.cameraZ - starZ;
         float camDirLen = (float)Math.sqrt(camDirX*camDirX + camDirY*camDirY + camDirZ*camDirZ);
         if (camDirLen > 0.001f) { camDirX /= camDirLen; camDirY /= camDirLen; camDirZ /= camDirLen; }
         
@@ -552,7 +1079,8 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         mvStack.rotate(billboardAngleX, 1.0f, 0.0f, 0.0f);
         mvStack.scale(0.3f, 0.3f, 0.3f);
         gl.glUniformMatrix4fv(mvLoc, 1, false, mvStack.get(vals));
-        gl.glDrawArrays(GL_TRIANGLES, 0, numSquareVerts);
+        gl.glDrawElements(GL_TRIANGLES, numSquareIndices, GL_UNSIGNED_INT, squareIndexOffset);
+        renderStats.draw(numSquareIndices / 3);
         mvStack.popMatrix();
         
         //Trail 
@@ -570,7 +1098,8 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
             mvStack.scale(baseSize, baseSize, baseSize);
             
             gl.glUniformMatrix4fv(mvLoc, 1, false, mvStack.get(vals));
-            gl.glDrawArrays(GL_TRIANGLES, 0, numSquareVerts);
+            gl.glDrawElements(GL_TRIANGLES, numSquareIndices, GL_UNSIGNED_INT, squareIndexOffset);
+            renderStats.draw(numSquareIndices / 3);
             mvStack.popMatrix();
         }
         
@@ -580,8 +1109,8 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         mvStack.popMatrix();
     }
     
-    private NavigationState calculateNavigationState(float tf, float gt) {
-        NavigationState state = new NavigationState();
+    private NavigationState calculateNavigationState(float tf, double gt) {
+        NavigationState state = navState;
         
         if (currentStage == 0) {
             cameraX = 0f; cameraY = 0f; cameraZ = 8.0f;
@@ -602,80 +1131,79 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         return state;
     }
     
-    private void calculateApproachPhase(float tf, float gt, NavigationState state) {
+    private void calculateApproachPhase(float tf, double gt, NavigationState state) {
         int planetIndex = (currentStage - 1) / 2;  
-        Vector3f targetPlanetPos = getPlanetPosition(planetIndex, gt);
+        Vector3f targetPlanetPos = getPlanetPosition(planetIndex, planetPos);
         
         float progress = Math.min(tf / APPROACH_DURATION, 1.0f);
         float t = easeInOutCubic(progress);
         
-        Vector3f startPos = new Vector3f(prevCameraX, prevCameraY, prevCameraZ);
+        startPos.set(prevCameraX, prevCameraY, prevCameraZ);
         
         float orbitDist = ORBIT_RADIUS + planets[planetIndex].size;
-        Vector3f endPos = new Vector3f(
+        endPos.set(
             targetPlanetPos.x,
             targetPlanetPos.y,
             targetPlanetPos.z + orbitDist
         );
         
-        Vector3f currentPlanetPos = null;
+        boolean hasCurrentPlanet = false;
         if (currentStage > 1) {
             int currentPlanetIndex = ((currentStage - 1) / 2) - 1;  
             if (currentPlanetIndex >= 0) {
-                currentPlanetPos = getPlanetPosition(currentPlanetIndex, gt);
+                getPlanetPosition(currentPlanetIndex, currentPlanetPos);
+                hasCurrentPlanet = true;
             }
         }
         
         //Create Bezier path
-        PathData path = new PathData();
         path.p0.set(startPos);
         path.p3.set(endPos);
         
         //Calculate direction from start to target
-        Vector3f toTarget = new Vector3f(targetPlanetPos).sub(startPos);
+        toTarget.set(targetPlanetPos).sub(startPos);
         float totalDistance = toTarget.length();
         toTarget.normalize();
         
         boolean nearCurrentPlanet = false;
-        Vector3f toCurrent = new Vector3f();
         float distToCurrent = 0;
         
-        if (currentPlanetPos != null) {
-            toCurrent = new Vector3f(currentPlanetPos).sub(startPos);
+        if (hasCurrentPlanet) {
+            toCurrent.set(currentPlanetPos).sub(startPos);
             distToCurrent = toCurrent.length();
             nearCurrentPlanet = distToCurrent < 15.0f;  
         }
         
         if (nearCurrentPlanet) {
             toCurrent.normalize();
-            Vector3f perpendicular = new Vector3f(toCurrent).cross(0, 1, 0).normalize();
+            perpendicular.set(toCurrent).cross(0, 1, 0).normalize();
             float arcRadius = distToCurrent + 8.0f;  
             
             //Control Point 1
             path.p1.set(startPos)
-                .add(new Vector3f(perpendicular).mul(arcRadius))  
-                .add(new Vector3f(0, totalDistance * 0.15f, 0)); 
+                .fma(arcRadius, perpendicular)  
+                .add(0, totalDistance * 0.15f, 0); 
             
             //Control Point 2
             path.p2.set(path.p1)
-                .add(new Vector3f(toTarget).mul(totalDistance * 0.4f))  
-                .add(new Vector3f(0, totalDistance * 0.05f, 0));        
+                .fma(totalDistance * 0.4f, toTarget)  
+                .add(0, totalDistance * 0.05f, 0);        
                 
         } else {
             //Control Point 1
             path.p1.set(startPos)
-                .add(new Vector3f(toTarget).mul(totalDistance * 0.33f))
-                .add(new Vector3f(0, totalDistance * 0.1f, 0));
+                .fma(totalDistance * 0.33f, toTarget)
+                .add(0, totalDistance * 0.1f, 0);
             
             //Control Point 2
             path.p2.set(endPos)
-                .sub(new Vector3f(toTarget).mul(totalDistance * 0.33f))
-                .add(new Vector3f(0, totalDistance * 0.05f, 0));
+                .fma(-totalDistance * 0.33f, toTarget)
+                .add(0, totalDistance * 0.05f, 0);
         }
         
         // Calculate Star Position 
-        Vector3f starPos = evaluateCubicBezier(path, t, null);
-        Vector3f prevStarPos = evaluateCubicBezier(path, Math.max(t - 0.02f, 0), new Vector3f());
+        evaluateCubicBezier(path, t, starPos);
+        evaluateCubicBezier(path, Math.max(t - 0.02f, 0), prevStarPos);
         
         state.starX = starPos.x;
         state.starY = starPos.y;
@@ -685,7 +1213,7 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         state.prevZ = prevStarPos.z;
         
         //Calculate direction 
-        Vector3f direction = new Vector3f(starPos).sub(prevStarPos).normalize();
+        direction.set(starPos).sub(prevStarPos).normalize();
         
         //Position camera
         float baseCamDist = 12.0f + planets[planetIndex].size * 10.0f;
@@ -705,15 +1233,16 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
             prevCameraY = cameraY;
             prevCameraZ = cameraZ;
             
+            recordStageTransition(currentStage, currentStage + 1, "approach complete");
             currentStage++;
-            stageStartTime = System.currentTimeMillis();
+            stageStartTime = clock.getRealTime();
             transitionComplete = false;
         }
     }
     
-    private void calculateOrbitPhase(float tf, float gt, NavigationState state) {
+    private void calculateOrbitPhase(float tf, double gt, NavigationState state) {
         int planetIndex = (currentStage - 2) / 2;
-        Vector3f planetPos = getPlanetPosition(planetIndex, gt);
+        getPlanetPosition(planetIndex, planetPos);
         
         float orbitDist = ORBIT_RADIUS + planets[planetIndex].size;
         float totalTime = ORBIT_DURATION;
@@ -782,17 +1311,18 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
             state.lookAtZ = planetPos.z;
             
             state.drawStar = false;  
+            if (!transitionComplete) recordStageTransition(currentStage, currentStage, "orbit settled");
             transitionComplete = true;
         }
     }    
     
-    private Vector3f getPlanetPosition(int planetIndex, float gt) {
-        CelestialBody p = planets[planetIndex];
-        float angle = gt * p.orbitSpeed;
-        return new Vector3f((float)Math.sin(angle) * p.orbitRadius, 0.0f, (float)Math.cos(angle) * p.orbitRadius);
+    //Position in the step being simulated: solved, looked up in the ephemeris, or integrated
+    private Vector3f getPlanetPosition(int planetIndex, Vector3f dest) {
+        int o = planetIndex * 3;
+        return dest.set((float)bodies.positions[o], (float)bodies.positions[o + 1], (float)bodies.positions[o + 2]);
     }
     
-    private static Vector3f evaluateCubicBezier(PathData path, float t, Vector3f dest) {
+    static Vector3f evaluateCubicBezier(PathData path, float t, Vector3f dest) {
         float u = 1.0f - t;
         float b0 = u*u*u, b1 = 3*u*u*t, b2 = 3*u*t*t, b3 = t*t*t;
         if (dest == null) dest = new Vector3f();
@@ -802,16 +1332,135 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         return dest;
     }
     
+    //Starts the fly-by to the next planet once the current orbit has settled
+    void advanceStage() {
+        post(CMD_ADVANCE, 0, System.nanoTime());
+    }
+    
+    private boolean startNextApproach() {
+        if (transitionComplete && currentStage % 2 == 0 && currentStage < getLastStage()) {
+            recordStageTransition(currentStage, currentStage + 1, "advance");
+            currentStage++;
+            stageStartTime = clock.getRealTime();
+            transitionComplete = false;
+            return true;
+        }
+        return false;
+    }
+    
+    //Stage n > 0 approaches (odd) or orbits (even) planet (n - 1) / 2
+    private void recordStageTransition(int fromStage, int toStage, String reason) {
+        if (!FlightEvents.STAGE_TRANSITION.isEnabled()) return;
+        FlightEvents.StageTransitionEvent event = new FlightEvents.StageTransitionEvent();
+        event.frame = frameNumber;
+        event.fromStage = fromStage;
+        event.toStage = toStage;
+        event.planet = toStage == 0 ? "Sun" : planets[(toStage - 1) / 2].name;
+        event.reason = reason;
+        event.stageTime = (long) ((clock.getRealTime() - stageStartTime) * 1e9);
+        event.commit();
+    }
+    
+    //Stage 0 is the sun, then an approach and an orbit stage per planet
+    private int getLastStage() {
+        return planets.length * 2;
+    }
+    
+    //As of the last frame rendered
+    boolean isTourFinished() {
+        return view != null && view.stage == getLastStage() && view.settled;
+    }
+    
+    void setViewMode(boolean topDown, boolean scaled) {
+        post(CMD_SET_VIEW, (topDown ? 1 : 0) | (scaled ? 2 : 0), System.nanoTime());
+    }
+    
+    InputLatencyMeter getInputLatency() { return inputLatency; }
+    
+    //Queues a command for the start of the next simulation step; eventNanos is when the input happened
+    private void post(int command, int argument, long eventNanos) {
+        if (!commands.offer(command, argument, eventNanos)) {
+            System.err.println("Input queue full, dropped command " + command);
+        }
+    }
+    
+    //Simulation thread only
+    private void applyCommand(int command, int argument, long eventNanos) {
+        switch (command) {
+            case CMD_TOGGLE_TOP_DOWN: topDownMode = !topDownMode; break;
+            case CMD_TOGGLE_SCALED: if (topDownMode) scaledViewMode = !scaledViewMode; break;
+            case CMD_ADVANCE: if (!topDownMode) startNextApproach(); break;
+            case CMD_JUMP: if (!topDownMode) jumpToPlanet(argument); break;
+            case CMD_PAUSE: clock.setPaused(!clock.isPaused()); break;
+            case CMD_STEP: clock.step(); break;
+            case CMD_WARP_FASTER: clock.setWarp(Math.min(clock.getWarp() * 2.0, getMaxTimeWarp())); break;
+            case CMD_WARP_SLOWER: clock.setWarp(clock.getWarp() * 0.5); break;
+            case CMD_SET_VIEW:
+                topDownMode = (argument & 1) != 0;
+                scaledViewMode = (argument & 2) != 0;
+                break;
+        }
+        appliedCommands++;
+        lastCommandNanos = eventNanos;
+    }
+    
+    //With -Dnbody=true, the last doubling at which one simulation step stays within what NBodySimulation
+    //advances per call, so its time keeps up with the clock
+    private double getMaxTimeWarp() {
+        if (nbody == null) return MAX_TIME_WARP;
+        double stepGt = (frameStep > 0.0 ? frameStep : clock.getFixedStep()) * 10.0;
+        double warp = 1.0;
+        while (warp * 2.0 * stepGt <= NBodySimulation.MAX_ADVANCE) warp *= 2.0;
+        return warp;
+    }
+    
+    //One simulation step; on the simulation thread, or the GL thread before it starts or when headless
+    private void simulate(double realDelta, WorldState out) {
+        commands.drain(commandHandler);
+        
+        //gt keeps the old tenth-of-a-second units, but in double so orbits don't step
+        clock.tick(realDelta);
+        float tf = (float)(clock.getRealTime() - stageStartTime);
+        double gt = clock.getTime() * 10.0;
+        bodies = out.bodies;
+        bodyState.update(gt, bodies);
+        if (nbody != null) updateNBody(gt);
+        
+        NavigationState state = topDownMode ? navState : calculateNavigationState(tf, gt);
+        out.gt = gt;
+        out.stage = currentStage;
+        out.topDown = topDownMode;
+        out.scaled = scaledViewMode;
+        out.settled = transitionComplete;
+        out.cameraX = cameraX; out.cameraY = cameraY; out.cameraZ = cameraZ;
+        out.lookAtX = state.lookAtX; out.lookAtY = state.lookAtY; out.lookAtZ = state.lookAtZ;
+        out.starX = state.starX; out.starY = state.starY; out.starZ = state.starZ;
+        out.prevX = state.prevX; out.prevY = state.prevY; out.prevZ = state.prevZ;
+        out.drawStar = state.drawStar;
+        out.inputCommands = appliedCommands;
+        out.inputEventNanos = lastCommandNanos;
+    }
+    
+    boolean isTexturesComplete() { return textureStreamer != null && textureStreamer.isComplete(); }
+    RenderStats getRenderStats() { return renderStats; }
+    int getPlanetCount() { return planets.length; }
+    
+    //Replaces the minor bodies, e.g. with a synthetic belt; drawn from the next frame on
+    void setMinorBodies(KeplerPropagator orbits) { minorBodies = orbits; }
+    FrameProfiler getProfiler() { return profiler; }
+    
     private void jumpToPlanet(int planetNum) {
         if (planetNum == 0) {
+            recordStageTransition(currentStage, 0, "jump");
             currentStage = 0;
             cameraX = 0.0f; cameraY = 0.0f; cameraZ = 8.0f;
             prevCameraX = cameraX; prevCameraY = cameraY; prevCameraZ = cameraZ;
             transitionComplete = true;
-        } else if (planetNum >= 1 && planetNum <= 9) {
+        } else if (planetNum >= 1 && planetNum <= planets.length) {
             int planetIndex = planetNum - 1;
+            recordStageTransition(currentStage, planetIndex * 2 + 2, "jump");
             currentStage = planetIndex * 2 + 2;
-            stageStartTime = System.currentTimeMillis() - (long)(ORBIT_DURATION * 1000.0f + 100);
+            stageStartTime = clock.getRealTime() - (ORBIT_DURATION + 0.1);
             transitionComplete = true;
         }
     }
@@ -825,51 +1474,80 @@ public class Code extends JFrame implements GLEventListener, KeyListener {
         gl.glEnableVertexAttribArray(1);
     }
     
-    private static float easeInOutCubic(float t) {
+    //Spin angle wrapped to one turn before narrowing, so rotation keeps full float precision
+    static float spin(double gt, float speed) {
+        return (float)((gt * speed) % (2.0 * Math.PI));
+    }
+    
+    static float easeInOutCubic(float t) {
         return t < 0.5f ? 4.0f * t * t * t : 1.0f - (float)Math.pow(-2.0f * t + 2.0f, 3.0f) / 2.0f;
     }
     
-    private static float lerp(float a, float b, float t) {
+    static float lerp(float a, float b, float t) {
         return a + (b - a) * t;
     }
     
-    private static float smoothstep(float edge0, float edge1, float x) {
+    static float smoothstep(float edge0, float edge1, float x) {
         float t = Math.max(0.0f, Math.min(1.0f, (x - edge0) / (edge1 - edge0)));
         return t * t * (3.0f - 2.0f * t);
     }   
     
     public void keyPressed(KeyEvent e) {
         int keyCode = e.getKeyCode();
+        //KeyEvent.getWhen() is wall-clock millis; carry it over to the nanoTime base latency is measured in
+        long eventNanos = System.nanoTime() - Math.max(0L, System.currentTimeMillis() - e.getWhen()) * 1000000L;
         //T --> Toggle Between Top-Down and Fly-By 
         if (keyCode == KeyEvent.VK_T) {
-            topDownMode = !topDownMode;
-            projectionNeedsUpdate = true;
+            post(CMD_TOGGLE_TOP_DOWN, 0, eventNanos);
             
         //S --> Switch Between Realistic and Scaled View    
-        } else if (keyCode == KeyEvent.VK_S && topDownMode) {
-            scaledViewMode = !scaledViewMode;
-            projectionNeedsUpdate = true;
+        } else if (keyCode == KeyEvent.VK_S) {
+            post(CMD_TOGGLE_SCALED, 0, eventNanos);
+            
+        //F3 --> Toggle Debug Overlay
+        } else if (keyCode == KeyEvent.VK_F3) {
+            overlay.setVisible(!overlay.isVisible());
             
         //Right Arrow --> Cycle Through Fly-By    
-        } else if (keyCode == KeyEvent.VK_RIGHT && !topDownMode) {
-            if (transitionComplete && currentStage % 2 == 0 && currentStage < 18) {
-                currentStage++;
-                stageStartTime = System.currentTimeMillis();
-                transitionComplete = false;
-            }
+        } else if (keyCode == KeyEvent.VK_RIGHT) {
+            post(CMD_ADVANCE, 0, eventNanos);
             
         //0-9 --> Jump to Specific Planets    
-        } else if (keyCode >= KeyEvent.VK_0 && keyCode <= KeyEvent.VK_9 && !topDownMode) {
-            jumpToPlanet(keyCode - KeyEvent.VK_0);
+        } else if (keyCode >= KeyEvent.VK_0 && keyCode <= KeyEvent.VK_9) {
+            post(CMD_JUMP, keyCode - KeyEvent.VK_0, eventNanos);
+            
+        //P --> Pause/Resume Simulated Time
+        } else if (keyCode == KeyEvent.VK_P) {
+            post(CMD_PAUSE, 0, eventNanos);
+            
+        //Period --> Single Step While Paused
+        } else if (keyCode == KeyEvent.VK_PERIOD) {
+            post(CMD_STEP, 0, eventNanos);
+            
+        //+/- --> Double or Halve Time Warp
+        } else if (keyCode == KeyEvent.VK_EQUALS || keyCode == KeyEvent.VK_ADD) {
+            post(CMD_WARP_FASTER, 0, eventNanos);
+        } else if (keyCode == KeyEvent.VK_MINUS || keyCode == KeyEvent.VK_SUBTRACT) {
+            post(CMD_WARP_SLOWER, 0, eventNanos);
         }
     }
     
     public void keyReleased(KeyEvent e) {}
     public void keyTyped(KeyEvent e) {}
     
-    public static void main(String[] args) { new Code(); }
-    public void dispose(GLAutoDrawable drawable) {}
+    //--headless runs the offscreen benchmark tour instead of opening a window
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            System.exit(HeadlessBenchmark.run(args));
+        }
+        new Code();
+    }
+    public void dispose(GLAutoDrawable drawable) {
+        if (simulation != null) simulation.stop();
+    }
     public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        surfaceWidth = Math.max(drawable.getSurfaceWidth(), 1);
+        surfaceHeight = Math.max(drawable.getSurfaceHeight(), 1);
         projectionNeedsUpdate = true;
     }
 }
\ No newline at end of file
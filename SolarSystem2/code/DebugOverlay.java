@@ -0,0 +1,53 @@
+package code;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.swing.*;
+
+//Text Overlay Drawn by Swing on Top of the GLJPanel
+//Lines are polled on the EDT a few times a second, so the render thread never builds strings
+public class DebugOverlay {
+    private static final int REFRESH_MS = 500;
+
+    private final JLabel label = new JLabel();
+    private final List<Supplier<String>> lines = new ArrayList<>();
+    private final Timer refresh;
+
+    public DebugOverlay(JComponent host) {
+        label.setForeground(Color.WHITE);
+        label.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        label.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+        label.setVerticalAlignment(SwingConstants.TOP);
+        label.setOpaque(false);
+        label.setVisible(false);
+        host.setLayout(new BorderLayout());
+        host.add(label, BorderLayout.NORTH);
+
+        refresh = new Timer(REFRESH_MS, e -> update());
+        refresh.start();
+    }
+
+    public void addLine(Supplier<String> line) {
+        SwingUtilities.invokeLater(() -> lines.add(line));
+    }
+
+    public boolean isVisible() { return label.isVisible(); }
+
+    public void setVisible(boolean visible) {
+        SwingUtilities.invokeLater(() -> {
+            label.setVisible(visible);
+            update();
+        });
+    }
+
+    private void update() {
+        if (!label.isVisible()) return;
+        StringBuilder text = new StringBuilder("<html>");
+        for (Supplier<String> line : lines) {
+            text.append(line.get()).append("<br>");
+        }
+        label.setText(text.append("</html>").toString());
+    }
+}
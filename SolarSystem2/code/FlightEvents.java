@@ -0,0 +1,77 @@
+package code;
+
+import jdk.jfr.*;
+
+//Custom Java Flight Recorder Events, Grouped Under "Solar System" in JMC
+//  java -XX:StartFlightRecording=filename=solar.jfr,settings=profile ... code.Code
+//Per-frame callers only construct an event when its type is enabled in a running recording, so the
+//frame loop stays allocation-free when nothing is recording; one-off asset loads always construct one.
+public class FlightEvents {
+    static final EventType FRAME = EventType.getEventType(FrameEvent.class);
+    static final EventType TEXTURE_LOAD = EventType.getEventType(TextureLoadEvent.class);
+    static final EventType SHADER_PROGRAM = EventType.getEventType(ShaderProgramEvent.class);
+    static final EventType STAGE_TRANSITION = EventType.getEventType(StageTransitionEvent.class);
+    static final EventType INPUT_LATENCY = EventType.getEventType(InputLatencyEvent.class);
+
+    @Name("code.Frame")
+    @Label("Frame")
+    @Description("One call to Code.display, from texture upload to the last draw")
+    @Category({"Solar System", "Rendering"})
+    @StackTrace(false)
+    public static class FrameEvent extends Event {
+        @Label("Frame Number") long frame;
+        @Label("Stage") int stage;
+        @Label("Top-Down View") boolean topDown;
+        @Label("Bodies Drawn") int bodies;
+        @Label("Draw Calls") int drawCalls;
+        @Label("Triangles") long triangles;
+        @Label("Body Textures Resident") int texturesResident;
+    }
+
+    @Name("code.TextureLoad")
+    @Label("Texture Load")
+    @Description("Reading, decoding and (for GL paths) uploading one texture file")
+    @Category({"Solar System", "Assets"})
+    public static class TextureLoadEvent extends Event {
+        @Label("File") String file;
+        @Label("Path") String path;
+        @Label("Width") int width;
+        @Label("Height") int height;
+        @Label("Bytes") @DataAmount long bytes;
+    }
+
+    @Name("code.ShaderProgram")
+    @Label("Shader Program")
+    @Description("Compiling and linking one shader program")
+    @Category({"Solar System", "Assets"})
+    public static class ShaderProgramEvent extends Event {
+        @Label("Vertex Shader") String vertexShader;
+        @Label("Fragment Shader") String fragmentShader;
+        @Label("Program") int program;
+        @Label("Linked") boolean linked;
+    }
+
+    @Name("code.StageTransition")
+    @Label("Stage Transition")
+    @Description("The fly-by moving between stages, or an orbit settling")
+    @Category({"Solar System", "Navigation"})
+    @StackTrace(false)
+    public static class StageTransitionEvent extends Event {
+        @Label("Frame Number") long frame;
+        @Label("From Stage") int fromStage;
+        @Label("To Stage") int toStage;
+        @Label("Planet") String planet;
+        @Label("Reason") String reason;
+        @Label("Time In Previous Stage") @Timespan(Timespan.NANOSECONDS) long stageTime;
+    }
+
+    @Name("code.InputLatency")
+    @Label("Input Latency")
+    @Description("Input event to the buffer swap of the first frame showing its effect")
+    @Category({"Solar System", "Input"})
+    @StackTrace(false)
+    public static class InputLatencyEvent extends Event {
+        @Label("Latency") @Timespan(Timespan.NANOSECONDS) long latency;
+        @Label("Commands In Frame") int commands;
+    }
+}
@@ -0,0 +1,203 @@
+package code;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+//Per-Phase CPU & GPU Timing of display()
+//Each phase is bracketed with System.nanoTime and a GL_TIME_ELAPSED query. Queries live in a ring
+//FRAMES_IN_FLIGHT frames deep and are only read back when GL_QUERY_RESULT_AVAILABLE says so, so the
+//CPU never waits on the GPU. Time spent outside display() (buffer swap, vsync, animator) is "swap".
+//Results feed smoothed values for the debug overlay and, optionally, a once-per-second CSV row that a
+//background thread writes, so the render thread does no I/O and allocates nothing.
+public class FrameProfiler {
+    public static final int UPLOAD = 0, UPDATE = 1, SKYDOME = 2, STAR = 3, ORBITS = 4, BODIES = 5, ASTEROIDS = 6, RINGS = 7;
+    private static final String[] PHASE_NAMES = {"upload", "update", "skydome", "star", "orbits", "bodies", "asteroids", "rings"};
+    private static final int PHASES = PHASE_NAMES.length;
+    private static final int FRAMES_IN_FLIGHT = 3;
+    private static final double SMOOTHING = 0.05;
+
+    //CSV row: seconds, frames, frame avg/max, swap avg/max, then cpu avg/max & gpu avg/max per phase
+    private static final int ROW_LENGTH = 6 + PHASES * 4;
+    private static final int MAX_ROWS_PER_FILE = 3600;
+
+    private final int[] queries = new int[FRAMES_IN_FLIGHT * PHASES];
+    private final boolean[] issued = new boolean[FRAMES_IN_FLIGHT * PHASES];
+    private final int[] available = new int[1];
+    private final long[] elapsed = new long[1];
+    private int frameSlot;
+
+    private int currentPhase = -1;
+    private long phaseStart, frameStart, lastFrameEnd, startNanos, secondStart;
+    private final double[] cpuMillis = new double[PHASES];
+
+    //Smoothed values read by the overlay on the EDT; a torn read only skews one refresh
+    private final double[] smoothCpu = new double[PHASES], smoothGpu = new double[PHASES];
+    private double smoothFrame, smoothSwap;
+
+    //Aggregates for the current one-second CSV row
+    private final double[] sumCpu = new double[PHASES], maxCpu = new double[PHASES];
+    private final double[] sumGpu = new double[PHASES], maxGpu = new double[PHASES];
+    private final int[] gpuSamples = new int[PHASES];
+    private double sumFrame, maxFrame, sumSwap, maxSwap;
+    private int secondFrames;
+
+    private final ArrayBlockingQueue<double[]> freeRows, fullRows;
+
+    //Must be created on the GL thread; csvFile may be null to keep the profile on screen only
+    public FrameProfiler(String csvFile) {
+        GL4 gl = (GL4) GLContext.getCurrentGL();
+        gl.glGenQueries(queries.length, queries, 0);
+        startNanos = secondStart = System.nanoTime();
+
+        if (csvFile == null) {
+            freeRows = fullRows = null;
+            return;
+        }
+        freeRows = new ArrayBlockingQueue<>(4);
+        fullRows = new ArrayBlockingQueue<>(4);
+        for (int i = 0; i < 4; i++) freeRows.add(new double[ROW_LENGTH]);
+        Thread writer = new Thread(() -> writeRows(csvFile), "profile-csv-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void beginFrame(GL4 gl) {
+        long now = System.nanoTime();
+        if (lastFrameEnd != 0) {
+            double swap = (now - lastFrameEnd) / 1e6;
+            smoothSwap += (swap - smoothSwap) * SMOOTHING;
+            sumSwap += swap;
+            if (swap > maxSwap) maxSwap = swap;
+        }
+        frameStart = now;
+        frameSlot = (frameSlot + 1) % FRAMES_IN_FLIGHT;
+        collectGpuResults(gl);
+        for (int p = 0; p < PHASES; p++) cpuMillis[p] = 0.0;
+    }
+
+    //Phases don't nest (one GL_TIME_ELAPSED query can be active at a time) and run at most once a frame
+    public void begin(GL4 gl, int phase) {
+        int query = frameSlot * PHASES + phase;
+        gl.glBeginQuery(GL_TIME_ELAPSED, queries[query]);
+        issued[query] = true;
+        currentPhase = phase;
+        phaseStart = System.nanoTime();
+    }
+
+    public void end(GL4 gl) {
+        cpuMillis[currentPhase] += (System.nanoTime() - phaseStart) / 1e6;
+        gl.glEndQuery(GL_TIME_ELAPSED);
+        currentPhase = -1;
+    }
+
+    public void endFrame() {
+        long now = System.nanoTime();
+        double frame = (now - frameStart) / 1e6;
+        lastFrameEnd = now;
+        smoothFrame += (frame - smoothFrame) * SMOOTHING;
+        sumFrame += frame;
+        if (frame > maxFrame) maxFrame = frame;
+        for (int p = 0; p < PHASES; p++) {
+            smoothCpu[p] += (cpuMillis[p] - smoothCpu[p]) * SMOOTHING;
+            sumCpu[p] += cpuMillis[p];
+            if (cpuMillis[p] > maxCpu[p]) maxCpu[p] = cpuMillis[p];
+        }
+        secondFrames++;
+        if (now - secondStart >= 1000000000L) finishSecond(now);
+    }
+
+    //Results for this slot were queued FRAMES_IN_FLIGHT frames ago; anything still pending is dropped
+    private void collectGpuResults(GL4 gl) {
+        for (int p = 0; p < PHASES; p++) {
+            int query = frameSlot * PHASES + p;
+            if (!issued[query]) continue;
+            issued[query] = false;
+            gl.glGetQueryObjectiv(queries[query], GL_QUERY_RESULT_AVAILABLE, available, 0);
+            if (available[0] == 0) continue;
+            gl.glGetQueryObjectui64v(queries[query], GL_QUERY_RESULT, elapsed, 0);
+            double gpu = elapsed[0] / 1e6;
+            smoothGpu[p] += (gpu - smoothGpu[p]) * SMOOTHING;
+            sumGpu[p] += gpu;
+            if (gpu > maxGpu[p]) maxGpu[p] = gpu;
+            gpuSamples[p]++;
+        }
+    }
+
+    private void finishSecond(long now) {
+        double[] row = freeRows == null ? null : freeRows.poll();
+        if (row != null) {
+            int frames = Math.max(secondFrames, 1);
+            row[0] = (now - startNanos) / 1e9;
+            row[1] = secondFrames;
+            row[2] = sumFrame / frames;
+            row[3] = maxFrame;
+            row[4] = sumSwap / frames;
+            row[5] = maxSwap;
+            for (int p = 0; p < PHASES; p++) {
+                row[6 + p*4] = sumCpu[p] / frames;
+                row[7 + p*4] = maxCpu[p];
+                row[8 + p*4] = gpuSamples[p] == 0 ? 0.0 : sumGpu[p] / gpuSamples[p];
+                row[9 + p*4] = maxGpu[p];
+            }
+            fullRows.offer(row);
+        }
+        secondStart = now;
+        secondFrames = 0;
+        sumFrame = maxFrame = sumSwap = maxSwap = 0.0;
+        for (int p = 0; p < PHASES; p++) {
+            sumCpu[p] = maxCpu[p] = sumGpu[p] = maxGpu[p] = 0.0;
+            gpuSamples[p] = 0;
+        }
+    }
+
+    //Overlay text, built on the EDT
+    public String describe() {
+        StringBuilder sb = new StringBuilder("cpu/gpu ms:");
+        for (int p = 0; p < PHASES; p++) {
+            sb.append(' ').append(PHASE_NAMES[p]).append(' ')
+              .append(String.format("%.2f/%.2f", smoothCpu[p], smoothGpu[p]));
+        }
+        sb.append(String.format("  frame %.2f  swap %.2f", smoothFrame, smoothSwap));
+        return sb.toString();
+    }
+
+    //Background writer; starts a new file (keeping one previous as .1) every MAX_ROWS_PER_FILE rows
+    private void writeRows(String csvFile) {
+        PrintWriter out = null;
+        int rows = MAX_ROWS_PER_FILE;
+        try {
+            while (true) {
+                double[] row = fullRows.take();
+                if (rows >= MAX_ROWS_PER_FILE) {
+                    if (out != null) {
+                        out.close();
+                        File previous = new File(csvFile + ".1");
+                        previous.delete();
+                        new File(csvFile).renameTo(previous);
+                    }
+                    out = new PrintWriter(new BufferedWriter(new FileWriter(csvFile)));
+                    out.print("seconds,frames,frame_avg_ms,frame_max_ms,swap_avg_ms,swap_max_ms");
+                    for (String name : PHASE_NAMES) {
+                        out.print("," + name + "_cpu_avg_ms," + name + "_cpu_max_ms," + name + "_gpu_avg_ms," + name + "_gpu_max_ms");
+                    }
+                    out.println();
+                    rows = 0;
+                }
+                out.printf("%.1f,%d", row[0], (int) row[1]);
+                for (int i = 2; i < ROW_LENGTH; i++) out.printf(",%.4f", row[i]);
+                out.println();
+                out.flush();
+                rows++;
+                freeRows.offer(row);
+            }
+        } catch (IOException e) {
+            System.err.println("Frame profile CSV '" + csvFile + "' stopped: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (out != null) out.close();
+        }
+    }
+}
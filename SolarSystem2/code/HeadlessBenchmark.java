@@ -0,0 +1,162 @@
+package code;
+
+import java.util.Arrays;
+import java.util.Random;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+//Offscreen Frame Benchmark: Plays a Deterministic Camera Tour Into an FBO, No Window Needed
+//  java code.Code --headless [--size 1280x720] [--fps 60] [--asteroids n] [--max-p95 ms] [--max-p99 ms]
+//Flies through every fly-by stage, then a few seconds of each top-down view, advancing the clock by
+//exactly 1/fps per frame from a fixed epoch so every run renders the same frames. Each frame is
+//timed up to glFinish, and the report gives frame-time percentiles plus draw calls and triangles
+//per frame. --asteroids adds a seeded synthetic belt of n minor bodies. With --max-p95/--max-p99 the
+//exit status is 1 when a budget is exceeded, so it can gate CI (headless.sh on Linux). Needs an X
+//server or EGL device for the context (e.g. xvfb-run with Mesa llvmpipe).
+public class HeadlessBenchmark {
+    //2025-01-01 00:00 UTC, so the planets start in the same place every run
+    private static final double TOUR_EPOCH = 1735689600.0;
+    private static final double TOP_DOWN_SECONDS = 3.0;
+    private static final long TEXTURE_WAIT_MILLIS = 60000;
+
+    public static int run(String[] args) {
+        int width = 1280, height = 720;
+        double fps = 60.0, maxP95 = 0.0, maxP99 = 0.0;
+        int asteroids = 0;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) throw new IllegalArgumentException("option " + args[i] + " needs a value");
+            switch (args[i]) {
+                case "--size":
+                    String[] size = args[i + 1].toLowerCase().split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                case "--fps": fps = Double.parseDouble(args[i + 1]); break;
+                case "--asteroids": asteroids = Integer.parseInt(args[i + 1]); break;
+                case "--max-p95": maxP95 = Double.parseDouble(args[i + 1]); break;
+                case "--max-p99": maxP99 = Double.parseDouble(args[i + 1]); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        GLProfile profile = GLProfile.get(GLProfile.GL4);
+        GLCapabilities caps = new GLCapabilities(profile);
+        caps.setOnscreen(false);
+        caps.setFBO(true);
+        caps.setDepthBits(24);
+        GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+            .createOffscreenAutoDrawable(null, caps, null, width, height);
+
+        SimulationClock clock = new SimulationClock(TOUR_EPOCH, 1.0 / 120.0);
+        Code code = new Code(clock, 1.0 / fps);
+        if (asteroids > 0) code.setMinorBodies(createBelt(asteroids));
+        String[] renderer = new String[1];
+        drawable.addGLEventListener(code);
+        drawable.addGLEventListener(new GLEventListener() {
+            public void init(GLAutoDrawable d) { renderer[0] = d.getGL().glGetString(GL_RENDERER); }
+            //Runs after Code.display, so a frame's time includes the GPU work it queued
+            public void display(GLAutoDrawable d) { d.getGL().glFinish(); }
+            public void reshape(GLAutoDrawable d, int x, int y, int w, int h) { }
+            public void dispose(GLAutoDrawable d) { }
+        });
+
+        //Let every body texture land first so measured frames don't depend on decoder timing;
+        //simulated time is held still meanwhile so the tour always starts from the same sky
+        clock.setPaused(true);
+        code.setViewMode(false, false);
+        long waitStart = System.currentTimeMillis();
+        do {
+            drawable.display();
+        } while (!code.isTexturesComplete() && System.currentTimeMillis() - waitStart < TEXTURE_WAIT_MILLIS);
+        clock.setPaused(false);
+
+        //Worst case: a 10 second stage per planet plus the two top-down segments
+        int capacity = (int) (fps * (code.getPlanetCount() * 10.0 + 2 * TOP_DOWN_SECONDS + 1.0)) + 1;
+        double[] frameMillis = new double[capacity];
+        int[] drawCalls = new int[capacity];
+        long[] triangles = new long[capacity];
+        int frames = 0;
+
+        int topDownFrames = (int) (TOP_DOWN_SECONDS * fps);
+        int tourEnd = -1;
+        while (frames < capacity) {
+            if (tourEnd < 0) {
+                code.advanceStage();
+                if (code.isTourFinished()) {
+                    tourEnd = frames;
+                    code.setViewMode(true, false);
+                }
+            } else if (frames == tourEnd + topDownFrames) {
+                code.setViewMode(true, true);
+            } else if (frames == tourEnd + 2 * topDownFrames) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            drawable.display();
+            frameMillis[frames] = (System.nanoTime() - start) / 1e6;
+            drawCalls[frames] = code.getRenderStats().getDrawCalls();
+            triangles[frames] = code.getRenderStats().getTriangles();
+            frames++;
+        }
+
+        double[] sorted = Arrays.copyOf(frameMillis, frames);
+        Arrays.sort(sorted);
+        double mean = 0.0;
+        for (double ms : sorted) mean += ms / frames;
+        double p50 = percentile(sorted, 0.50), p95 = percentile(sorted, 0.95), p99 = percentile(sorted, 0.99);
+
+        long drawSum = 0, triangleSum = 0, drawMax = 0, triangleMax = 0;
+        for (int i = 0; i < frames; i++) {
+            drawSum += drawCalls[i];
+            triangleSum += triangles[i];
+            drawMax = Math.max(drawMax, drawCalls[i]);
+            triangleMax = Math.max(triangleMax, triangles[i]);
+        }
+
+        System.out.printf("Headless tour: %d frames at %dx%d, %.0f Hz simulated, %d asteroids, renderer: %s%n",
+                          frames, width, height, fps, asteroids, renderer[0]);
+        System.out.printf("frame ms:        p50 %.3f  p95 %.3f  p99 %.3f  max %.3f  mean %.3f%n",
+                          p50, p95, p99, sorted[frames - 1], mean);
+        System.out.printf("draw calls/frame: avg %.1f  max %d%n", (double) drawSum / frames, drawMax);
+        System.out.printf("triangles/frame:  avg %.0f  max %d%n", (double) triangleSum / frames, triangleMax);
+        System.out.println(code.getProfiler().describe());
+        drawable.destroy();
+        return checkBudgets(p95, p99, maxP95, maxP99);
+    }
+
+    //Exit status for the measured percentiles: 1, with a FAIL line for each, when a set (nonzero) budget
+    //is exceeded, otherwise 0
+    static int checkBudgets(double p95, double p99, double maxP95, double maxP99) {
+        int status = 0;
+        if (maxP95 > 0.0 && p95 > maxP95) {
+            System.out.printf("FAIL: p95 %.3f ms exceeds budget %.3f ms%n", p95, maxP95);
+            status = 1;
+        }
+        if (maxP99 > 0.0 && p99 > maxP99) {
+            System.out.printf("FAIL: p99 %.3f ms exceeds budget %.3f ms%n", p99, maxP99);
+            status = 1;
+        }
+        return status;
+    }
+
+    //Main-belt-like orbits (2.1 to 3.3 AU), scaled like MpcorbImporter's, the same every run
+    private static KeplerPropagator createBelt(int count) {
+        KeplerPropagator belt = new KeplerPropagator(count);
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            double au = 2.1 + random.nextDouble() * 1.2;
+            belt.add(au * MpcorbImporter.SCENE_UNITS_PER_AU, random.nextDouble() * 0.3, random.nextDouble() * 0.35,
+                     random.nextDouble() * 2.0 * Math.PI, random.nextDouble() * 2.0 * Math.PI,
+                     random.nextDouble() * 2.0 * Math.PI, 0.9856 / Math.pow(au, 1.5) * MpcorbImporter.MEAN_MOTION_SCALE,
+                     Code.ORBIT_EPOCH);
+        }
+        return belt;
+    }
+
+    //Nearest-rank percentile of an ascending array
+    static double percentile(double[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,48 @@
+package code;
+
+//Key-to-Photon Latency: Input Event Timestamp to the Buffer Swap of the First Frame Showing Its Effect
+//The simulation stamps each WorldState with how many commands it has applied and the event time of the
+//latest one. When the render thread first draws a state with a higher count it arms the meter, and the
+//next frame's start (display() is entered again only after the swap returned) closes the sample.
+public class InputLatencyMeter {
+    private long seenCommands;
+    private long armedEventNanos;
+    private int armedCount;
+
+    //Written by the render thread, read by the overlay on the EDT
+    private volatile double lastMillis, maxMillis, totalMillis;
+    private volatile long samples;
+
+    //Call first thing in display(), i.e. after the previous frame's swap
+    public void beginFrame() {
+        if (armedCount == 0) return;
+        double millis = (System.nanoTime() - armedEventNanos) / 1e6;
+        lastMillis = millis;
+        if (millis > maxMillis) maxMillis = millis;
+        totalMillis += millis;
+        samples++;
+        if (FlightEvents.INPUT_LATENCY.isEnabled()) {
+            FlightEvents.InputLatencyEvent event = new FlightEvents.InputLatencyEvent();
+            event.latency = (long) (millis * 1e6);
+            event.commands = armedCount;
+            event.commit();
+        }
+        armedCount = 0;
+    }
+
+    //Call with the state this frame draws; several commands landing in one frame count as one sample
+    //for the latest of them
+    public void frameShows(WorldState state) {
+        if (state.inputCommands == seenCommands) return;
+        armedCount = (int) (state.inputCommands - seenCommands);
+        armedEventNanos = state.inputEventNanos;
+        seenCommands = state.inputCommands;
+    }
+
+    public String describe() {
+        long n = samples;
+        if (n == 0) return "input latency: no input yet";
+        return String.format("input latency: %.1f ms (avg %.1f, max %.1f, %d samples)",
+                             lastMillis, totalMillis / n, maxMillis, n);
+    }
+}
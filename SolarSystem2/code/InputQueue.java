@@ -0,0 +1,69 @@
+package code;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Bounded Lock-Free Multi-Producer, Single-Consumer Queue of Timestamped Input Commands
+//Any thread (AWT, the headless driver) offers; only the simulation step drains. Each slot carries a
+//sequence number (after D. Vyukov's bounded queue): a producer claims a position with one CAS on tail,
+//fills the slot and then publishes it by advancing the slot's sequence, which the consumer waits to
+//see before reading. Commands are plain ints in preallocated arrays, so nothing is allocated per event.
+public class InputQueue {
+    public interface Handler {
+        void handle(int command, int argument, long eventNanos);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] commands, arguments;
+    private final long[] eventNanos;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;  //consumer only
+
+    //capacity must be a power of two
+    public InputQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+        commands = new int[capacity];
+        arguments = new int[capacity];
+        eventNanos = new long[capacity];
+    }
+
+    //Returns false (dropping the command) when the consumer has fallen a whole queue behind
+    public boolean offer(int command, int argument, long timestampNanos) {
+        long pos = tail.get();
+        int slot;
+        while (true) {
+            slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        commands[slot] = command;
+        arguments[slot] = argument;
+        eventNanos[slot] = timestampNanos;
+        sequences.set(slot, pos + 1);
+        return true;
+    }
+
+    //Hands every published command to handler in order; returns how many there were
+    public int drain(Handler handler) {
+        int drained = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) return drained;
+            handler.handle(commands[slot], arguments[slot], eventNanos[slot]);
+            sequences.set(slot, head + mask + 1);
+            head++;
+            drained++;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package code;
+
+import java.nio.*;
+import java.lang.Math;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+import org.joml.*;
+
+//Batches Every Sun, Planet & Moon Sphere Into One Instanced Draw per Sphere LOD
+public class InstancedBodyRenderer {
+    //Per-Instance Layout: mat4 model matrix (locations 2-5), texture layer (6), placeholder color (7)
+    //A layer of -1 means the texture hasn't streamed in yet and the placeholder color is drawn instead
+    private static final int MATRIX_LOC = 2, LAYER_LOC = 6, COLOR_LOC = 7;
+    private static final int FLOATS_PER_INSTANCE = 20;
+    private static final int STRIDE = FLOATS_PER_INSTANCE * 4;
+
+    private final int instanceVbo;
+    private final SphereLod lod;
+    private final TextureStreamer textures;
+    private final Matrix4f model = new Matrix4f();
+
+    //One bucket per LOD level so each level's instances are contiguous in the VBO
+    private final FloatBuffer[] levelData;
+    private final int[] levelCapacity, levelCount;
+
+    //Level each body id used last frame, for hysteresis
+    private int[] bodyLevels = new int[0];
+
+    //View state for projected-size selection, captured in begin()
+    private final Matrix4f view = new Matrix4f();
+    private float projScale, projW0, projWz;
+
+    public InstancedBodyRenderer(int instanceVbo, SphereLod lod, TextureStreamer textures, int initialCapacity) {
+        this.instanceVbo = instanceVbo;
+        this.lod = lod;
+        this.textures = textures;
+        int levels = lod.getLevelCount();
+        levelData = new FloatBuffer[levels];
+        levelCapacity = new int[levels];
+        levelCount = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            levelCapacity[l] = Math.max(initialCapacity, 1);
+            levelData[l] = Buffers.newDirectFloatBuffer(levelCapacity[l] * FLOATS_PER_INSTANCE);
+        }
+    }
+
+    //Projected radius in pixels = radius * p11 * (height / 2) / clip.w, with clip.w = p23 * viewZ + p33
+    public void begin(Matrix4fc viewMat, Matrix4fc projMat, int viewportHeight) {
+        view.set(viewMat);
+        projScale = projMat.m11() * viewportHeight * 0.5f;
+        projWz = projMat.m23();
+        projW0 = projMat.m33();
+        for (int l = 0; l < levelCount.length; l++) levelCount[l] = 0;
+    }
+
+    //Same transform order renderSphere used: translate, spin about Y, uniform scale
+    public void add(int bodyId, float x, float y, float z, float scale, float rotation, int layer) {
+        int level = selectLevel(bodyId, x, y, z, scale);
+        if (levelCount[level] == levelCapacity[level]) grow(level);
+        int base = levelCount[level] * FLOATS_PER_INSTANCE;
+        model.translation(x, y, z).rotateY(rotation).scale(scale);
+        FloatBuffer data = levelData[level];
+        model.get(base, data);
+        float[] placeholders = textures.getPlaceholderColors();
+        data.put(base + 16, textures.isLoaded(layer) ? layer : -1.0f);
+        data.put(base + 17, placeholders[layer*3]);
+        data.put(base + 18, placeholders[layer*3+1]);
+        data.put(base + 19, placeholders[layer*3+2]);
+        levelCount[level]++;
+    }
+
+    public int getInstanceCount() {
+        int total = 0;
+        for (int l = 0; l < levelCount.length; l++) total += levelCount[l];
+        return total;
+    }
+
+    //Uploads this frame's instances and issues one instanced draw per non-empty LOD level
+    public void draw(GL4 gl, int instancedLoc, RenderStats stats) {
+        if (getInstanceCount() == 0) return;
+
+        int capacity = 0;
+        for (int l = 0; l < levelCapacity.length; l++) capacity += levelCapacity[l];
+
+        gl.glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, (long) capacity * STRIDE, null, GL_STREAM_DRAW);
+        long offset = 0;
+        for (int l = 0; l < levelCount.length; l++) {
+            if (levelCount[l] == 0) continue;
+            gl.glBufferSubData(GL_ARRAY_BUFFER, offset, (long) levelCount[l] * STRIDE, levelData[l]);
+            offset += (long) levelCount[l] * STRIDE;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            gl.glVertexAttribPointer(MATRIX_LOC + i, 4, GL_FLOAT, false, STRIDE, i * 16L);
+            gl.glVertexAttribDivisor(MATRIX_LOC + i, 1);
+            gl.glEnableVertexAttribArray(MATRIX_LOC + i);
+        }
+        gl.glVertexAttribPointer(LAYER_LOC, 1, GL_FLOAT, false, STRIDE, 64L);
+        gl.glVertexAttribDivisor(LAYER_LOC, 1);
+        gl.glEnableVertexAttribArray(LAYER_LOC);
+        gl.glVertexAttribPointer(COLOR_LOC, 3, GL_FLOAT, false, STRIDE, 68L);
+        gl.glVertexAttribDivisor(COLOR_LOC, 1);
+        gl.glEnableVertexAttribArray(COLOR_LOC);
+
+        gl.glActiveTexture(GL_TEXTURE1);
+        gl.glBindTexture(GL_TEXTURE_2D_ARRAY, textures.getTextureArray());
+        gl.glActiveTexture(GL_TEXTURE0);
+
+        gl.glUniform1i(instancedLoc, 1);
+        int baseInstance = 0;
+        for (int l = 0; l < levelCount.length; l++) {
+            if (levelCount[l] == 0) continue;
+            gl.glDrawElementsInstancedBaseInstance(GL_TRIANGLES, lod.getIndexCount(l), GL_UNSIGNED_INT,
+                lod.getIndexByteOffset(l), levelCount[l], baseInstance);
+            stats.draw((long) levelCount[l] * lod.getIndexCount(l) / 3);
+            baseInstance += levelCount[l];
+        }
+        gl.glUniform1i(instancedLoc, 0);
+
+        //Leave the shared VAO clean for the non-instanced skydome, orbit & star draws
+        for (int i = MATRIX_LOC; i <= COLOR_LOC; i++) {
+            gl.glDisableVertexAttribArray(i);
+        }
+    }
+
+    private int selectLevel(int bodyId, float x, float y, float z, float scale) {
+        if (bodyId >= bodyLevels.length) {
+            int[] bigger = new int[Math.max(bodyId + 1, bodyLevels.length * 2)];
+            System.arraycopy(bodyLevels, 0, bigger, 0, bodyLevels.length);
+            for (int i = bodyLevels.length; i < bigger.length; i++) bigger[i] = -1;
+            bodyLevels = bigger;
+        }
+        float viewZ = view.m02() * x + view.m12() * y + view.m22() * z + view.m32();
+        float w = projWz * viewZ + projW0;
+        float pixelRadius = w > 0.0f ? scale * projScale / w : Float.MAX_VALUE;
+        int level = SphereLod.selectLevel(pixelRadius, bodyLevels[bodyId]);
+        bodyLevels[bodyId] = level;
+        return level;
+    }
+
+    private void grow(int level) {
+        levelCapacity[level] *= 2;
+        FloatBuffer bigger = Buffers.newDirectFloatBuffer(levelCapacity[level] * FLOATS_PER_INSTANCE);
+        levelData[level].clear();
+        bigger.put(levelData[level]);
+        bigger.clear();
+        levelData[level] = bigger;
+    }
+}
@@ -0,0 +1,214 @@
+package code;
+
+import java.util.Arrays;
+
+//Two-Body Keplerian Propagation of Many Bodies at Once
+//Each body is stored as its classical elements (a, e, i, node, periapsis, M0 at an epoch, mean motion n), but the
+//orientation is folded into two scene-space vectors up front:
+//  A = a * P,  B = a * sqrt(1 - e^2) * Q     (P toward periapsis, Q 90 degrees ahead in the orbit plane)
+//so a position is just  r = A (cos E - e) + B sin E  once Kepler's equation M = E - e sin E is solved.
+//Everything lives in flat double arrays so propagate() streams through memory with no objects.
+//Scene axes: the ecliptic reference plane is XZ with +Y toward the ecliptic north pole, and
+//ecliptic (x, y, z) maps to scene (y, z, x) so a circular, uninclined orbit matches the old
+//(sin, 0, cos) placement.
+//When the JVM runs with --add-modules jdk.incubator.vector, propagate() hands whole SIMD blocks to
+//KeplerVectorKernel and only the remainder goes through the scalar loop; -Dkepler.scalar=true
+//turns that off.
+public class KeplerPropagator {
+    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double TOLERANCE = 1e-12;
+    //propagate() stops once a Newton step is this small; the step itself is still applied, leaving an
+    //error around its square, far below the float precision the positions end up in
+    private static final double STEP_TOLERANCE = 1e-8;
+    private static final int MAX_ITERATIONS = 16;
+
+    static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+                                            && !Boolean.getBoolean("kepler.scalar");
+
+    //Structure of arrays, one entry per body; package-private for KeplerVectorKernel
+    private int count;
+    double[] e, meanAnomaly, meanMotion, epoch;
+    double[] ax, ay, az, bx, by, bz;
+    private boolean vectorized = VECTOR_AVAILABLE;
+
+    public KeplerPropagator(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        e = new double[capacity];
+        meanAnomaly = new double[capacity];
+        meanMotion = new double[capacity];
+        epoch = new double[capacity];
+        ax = new double[capacity]; ay = new double[capacity]; az = new double[capacity];
+        bx = new double[capacity]; by = new double[capacity]; bz = new double[capacity];
+    }
+
+    //Angles in radians; meanMotion is radians per unit of t, meanAnomalyAtEpoch is M at t = epoch.
+    //Only closed orbits (0 <= e < 1) are supported. Returns the body's index.
+    public int add(double semiMajorAxis, double eccentricity, double inclination, double ascendingNode,
+                   double argPeriapsis, double meanAnomalyAtEpoch, double meanMotion, double epoch) {
+        if (eccentricity < 0.0 || eccentricity >= 1.0) {
+            throw new IllegalArgumentException("eccentricity must be in [0, 1): " + eccentricity);
+        }
+        if (count == e.length) grow(count * 2);
+        int k = count++;
+
+        double cosO = Math.cos(ascendingNode), sinO = Math.sin(ascendingNode);
+        double cosW = Math.cos(argPeriapsis), sinW = Math.sin(argPeriapsis);
+        double cosI = Math.cos(inclination), sinI = Math.sin(inclination);
+
+        //Perifocal basis in ecliptic coordinates
+        double px = cosW * cosO - sinW * sinO * cosI;
+        double py = cosW * sinO + sinW * cosO * cosI;
+        double pz = sinW * sinI;
+        double qx = -sinW * cosO - cosW * sinO * cosI;
+        double qy = -sinW * sinO + cosW * cosO * cosI;
+        double qz = cosW * sinI;
+
+        double b = semiMajorAxis * Math.sqrt(1.0 - eccentricity * eccentricity);
+        ax[k] = semiMajorAxis * py; ay[k] = semiMajorAxis * pz; az[k] = semiMajorAxis * px;
+        bx[k] = b * qy;             by[k] = b * qz;             bz[k] = b * qx;
+
+        e[k] = eccentricity;
+        this.meanAnomaly[k] = meanAnomalyAtEpoch;
+        this.meanMotion[k] = meanMotion;
+        this.epoch[k] = epoch;
+        return k;
+    }
+
+    //Appends every body of other, e.g. a block filled on another thread
+    public void addAll(KeplerPropagator other) {
+        ensureCapacity(count + other.count);
+        int n = other.count;
+        System.arraycopy(other.e, 0, e, count, n);
+        System.arraycopy(other.meanAnomaly, 0, meanAnomaly, count, n);
+        System.arraycopy(other.meanMotion, 0, meanMotion, count, n);
+        System.arraycopy(other.epoch, 0, epoch, count, n);
+        System.arraycopy(other.ax, 0, ax, count, n);
+        System.arraycopy(other.ay, 0, ay, count, n);
+        System.arraycopy(other.az, 0, az, count, n);
+        System.arraycopy(other.bx, 0, bx, count, n);
+        System.arraycopy(other.by, 0, by, count, n);
+        System.arraycopy(other.bz, 0, bz, count, n);
+        count += n;
+    }
+
+    //Removes every body, keeping the arrays for reuse
+    public void clear() {
+        count = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > e.length) grow(Math.max(capacity, e.length * 2));
+    }
+
+    private void grow(int capacity) {
+        e = Arrays.copyOf(e, capacity);
+        meanAnomaly = Arrays.copyOf(meanAnomaly, capacity);
+        meanMotion = Arrays.copyOf(meanMotion, capacity);
+        epoch = Arrays.copyOf(epoch, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        az = Arrays.copyOf(az, capacity);
+        bx = Arrays.copyOf(bx, capacity);
+        by = Arrays.copyOf(by, capacity);
+        bz = Arrays.copyOf(bz, capacity);
+    }
+
+    public int getCount() { return count; }
+
+    //Chooses the SIMD or scalar path; returns whether SIMD is now in use (it can't be without the module)
+    public boolean setVectorized(boolean vectorized) {
+        this.vectorized = vectorized && VECTOR_AVAILABLE;
+        return this.vectorized;
+    }
+
+    public boolean isVectorized() { return vectorized; }
+
+    //Writes every body's scene position at time t into out as x, y, z triples (out.length >= 3 * count)
+    public void propagate(double t, double[] out) {
+        propagate(t, 0, count, out);
+    }
+
+    //Bodies [from, to) only, written at their own offsets, so disjoint ranges can run on separate threads
+    public void propagate(double t, int from, int to, double[] out) {
+        if (vectorized) from = KeplerVectorKernel.propagate(this, t, from, to, out);
+        for (int k = from; k < to; k++) {
+            double ecc = e[k];
+            double m = reduceAngle(meanAnomaly[k] + meanMotion[k] * (t - epoch[k]));
+            double bigE = initialGuess(m, ecc);
+            double sinE = Math.sin(bigE), cosE = Math.cos(bigE);
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                double delta = (bigE - ecc * sinE - m) / (1.0 - ecc * cosE);
+                bigE -= delta;
+                if (Math.abs(delta) < STEP_TOLERANCE) {
+                    //Rotate sin/cos by the last tiny step rather than evaluating them again
+                    double sinNext = sinE - delta * cosE;
+                    cosE += delta * sinE;
+                    sinE = sinNext;
+                    break;
+                }
+                sinE = Math.sin(bigE);
+                cosE = Math.cos(bigE);
+            }
+            double x = cosE - ecc;
+            double y = sinE;
+            int o = k * 3;
+            out[o]     = ax[k] * x + bx[k] * y;
+            out[o + 1] = ay[k] * x + by[k] * y;
+            out[o + 2] = az[k] * x + bz[k] * y;
+        }
+    }
+
+    //Position and velocity of body k at time t into dest as x, y, z, vx, vy, vz. The velocity is the one
+    //a real orbit of this shape has about a central mass gm (G * M in scene units^3 per gt^2), taken from
+    //the ellipse's own size rather than meanMotion, so NBodySimulation can start bodies on stable orbits.
+    public void stateVector(int k, double t, double gm, double[] dest) {
+        double ecc = e[k];
+        double bigE = solveKepler(meanAnomaly[k] + meanMotion[k] * (t - epoch[k]), ecc);
+        double sinE = Math.sin(bigE), cosE = Math.cos(bigE);
+        double a = Math.sqrt(ax[k] * ax[k] + ay[k] * ay[k] + az[k] * az[k]);
+        double rate = Math.sqrt(gm / (a * a * a)) / (1.0 - ecc * cosE);  //dE/dt
+        double x = cosE - ecc, y = sinE;
+        dest[0] = ax[k] * x + bx[k] * y;
+        dest[1] = ay[k] * x + by[k] * y;
+        dest[2] = az[k] * x + bz[k] * y;
+        dest[3] = (bx[k] * cosE - ax[k] * sinE) * rate;
+        dest[4] = (by[k] * cosE - ay[k] * sinE) * rate;
+        dest[5] = (bz[k] * cosE - az[k] * sinE) * rate;
+    }
+
+    //Point on body k's orbit at eccentric anomaly bigE, for drawing the ellipse (dest gets x, y, z at offset)
+    public void orbitPoint(int k, double bigE, float[] dest, int offset) {
+        double x = Math.cos(bigE) - e[k];
+        double y = Math.sin(bigE);
+        dest[offset]     = (float) (ax[k] * x + bx[k] * y);
+        dest[offset + 1] = (float) (ay[k] * x + by[k] * y);
+        dest[offset + 2] = (float) (az[k] * x + bz[k] * y);
+    }
+
+    //Eccentric anomaly E for mean anomaly M (any range) by Newton iteration on f(E) = E - e sin E - M.
+    //M is first reduced to [-pi, pi]. The starting guess is the second-order series
+    //E0 = M + e sin M (1 + e cos M), which is within ~e^3 of the root, so the low-eccentricity planets
+    //converge in two or three steps; past e = 0.8 the series can overshoot, so E0 = +-pi is used instead,
+    //from which Newton converges monotonically.
+    //propagate() runs the same iteration inline so it can reuse the final sin/cos.
+    public static double solveKepler(double meanAnomaly, double ecc) {
+        double m = reduceAngle(meanAnomaly);
+        double bigE = initialGuess(m, ecc);
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double delta = (bigE - ecc * Math.sin(bigE) - m) / (1.0 - ecc * Math.cos(bigE));
+            bigE -= delta;
+            if (Math.abs(delta) < TOLERANCE) break;
+        }
+        return bigE;
+    }
+
+    private static double reduceAngle(double angle) {
+        double m = angle - TWO_PI * Math.floor(angle / TWO_PI);
+        return m > Math.PI ? m - TWO_PI : m;
+    }
+
+    private static double initialGuess(double m, double ecc) {
+        if (ecc < 0.8) return m + ecc * Math.sin(m) * (1.0 + ecc * Math.cos(m));
+        return m < 0.0 ? -Math.PI : Math.PI;
+    }
+}
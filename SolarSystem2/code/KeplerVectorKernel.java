@@ -0,0 +1,76 @@
+package code;
+
+import jdk.incubator.vector.*;
+
+//SIMD Version of KeplerPropagator.propagate on the Incubating Vector API
+//Runs SPECIES.length() bodies per step (4 doubles on AVX2, 8 on AVX-512) through the same Newton
+//iteration as the scalar loop. Lanes converge at different rates, so a block keeps iterating until
+//every lane's step is below the tolerance; the extra steps on settled lanes are harmless. Positions
+//are scattered straight into the interleaved x, y, z output.
+//Only loaded when jdk.incubator.vector is in the boot layer (--add-modules jdk.incubator.vector).
+class KeplerVectorKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double STEP_TOLERANCE = 1e-8;
+    private static final int MAX_ITERATIONS = 16;
+
+    //Output offsets of x for each lane: 0, 3, 6, ...
+    private static final int[] LANE_OFFSETS = new int[LANES];
+    static {
+        for (int i = 0; i < LANES; i++) LANE_OFFSETS[i] = i * 3;
+    }
+
+    static int getLaneCount() { return LANES; }
+
+    //Propagates whole blocks of bodies from 'from' onward and returns the first body it didn't reach,
+    //leaving the remainder (fewer than one block) to the scalar loop
+    static int propagate(KeplerPropagator p, double t, int from, int to, double[] out) {
+        int end = from + (to - from) / LANES * LANES;
+        for (int k = from; k < end; k += LANES) {
+            DoubleVector ecc = DoubleVector.fromArray(SPECIES, p.e, k);
+            DoubleVector m = DoubleVector.fromArray(SPECIES, p.meanMotion, k)
+                .mul(DoubleVector.fromArray(SPECIES, p.epoch, k).neg().add(t))
+                .add(DoubleVector.fromArray(SPECIES, p.meanAnomaly, k));
+
+            //Reduce to [-pi, pi]; there is no lanewise floor, so truncate through long and fold back
+            DoubleVector turns = (DoubleVector) m.div(TWO_PI).convert(VectorOperators.D2L, 0)
+                                                 .convert(VectorOperators.L2D, 0);
+            m = m.sub(turns.mul(TWO_PI));
+            m = m.add(-TWO_PI, m.compare(VectorOperators.GT, Math.PI));
+            m = m.add(TWO_PI, m.compare(VectorOperators.LT, -Math.PI));
+
+            //Same starting guess as the scalar solver
+            DoubleVector series = ecc.mul(m.lanewise(VectorOperators.SIN))
+                                     .mul(ecc.mul(m.lanewise(VectorOperators.COS)).add(1.0)).add(m);
+            DoubleVector pi = DoubleVector.broadcast(SPECIES, Math.PI);
+            DoubleVector edge = pi.blend(pi.neg(), m.compare(VectorOperators.LT, 0.0));
+            DoubleVector bigE = series.blend(edge, ecc.compare(VectorOperators.GE, 0.8));
+
+            DoubleVector sinE = bigE.lanewise(VectorOperators.SIN);
+            DoubleVector cosE = bigE.lanewise(VectorOperators.COS);
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                DoubleVector delta = bigE.sub(ecc.mul(sinE)).sub(m).div(ecc.mul(cosE).neg().add(1.0));
+                bigE = bigE.sub(delta);
+                if (delta.abs().compare(VectorOperators.LT, STEP_TOLERANCE).allTrue()) {
+                    DoubleVector sinNext = sinE.sub(delta.mul(cosE));
+                    cosE = cosE.add(delta.mul(sinE));
+                    sinE = sinNext;
+                    break;
+                }
+                sinE = bigE.lanewise(VectorOperators.SIN);
+                cosE = bigE.lanewise(VectorOperators.COS);
+            }
+
+            DoubleVector x = cosE.sub(ecc);
+            int o = k * 3;
+            DoubleVector.fromArray(SPECIES, p.ax, k).mul(x).add(DoubleVector.fromArray(SPECIES, p.bx, k).mul(sinE))
+                .intoArray(out, o, LANE_OFFSETS, 0);
+            DoubleVector.fromArray(SPECIES, p.ay, k).mul(x).add(DoubleVector.fromArray(SPECIES, p.by, k).mul(sinE))
+                .intoArray(out, o + 1, LANE_OFFSETS, 0);
+            DoubleVector.fromArray(SPECIES, p.az, k).mul(x).add(DoubleVector.fromArray(SPECIES, p.bz, k).mul(sinE))
+                .intoArray(out, o + 2, LANE_OFFSETS, 0);
+        }
+        return end;
+    }
+}
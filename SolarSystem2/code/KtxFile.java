@@ -0,0 +1,202 @@
+package code;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import static com.jogamp.opengl.GL4.*;
+
+//Minimal KTX 1.1 Reader & Writer for Precompressed, Pre-Mipmapped 2D Textures
+//Supports the block formats the renderer uploads directly: BC1 (DXT1), BC3 (DXT5) and BC7 (BPTC).
+//Layout: 12 byte identifier, 13 uint32 header fields, key/value data, then per mip level a uint32
+//image size followed by the level's blocks (padded to 4 bytes).
+public class KtxFile {
+    private static final byte[] IDENTIFIER = {
+        (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int ENDIANNESS = 0x04030201;
+    private static final int HEADER_BYTES = 64;
+
+    private final int internalFormat, width, height, levelCount;
+    private final ByteBuffer[] levels;
+
+    public KtxFile(int internalFormat, int width, int height, ByteBuffer[] levels) {
+        this(internalFormat, width, height, levels.length, levels);
+    }
+
+    private KtxFile(int internalFormat, int width, int height, int levelCount, ByteBuffer[] levels) {
+        this.internalFormat = internalFormat;
+        this.width = width;
+        this.height = height;
+        this.levelCount = levelCount;
+        this.levels = levels;
+    }
+
+    public int getInternalFormat() { return internalFormat; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getLevelCount() { return levelCount; }
+
+    //Direct, read-only views of each mip level's blocks; null for a header-only read
+    public ByteBuffer getLevel(int level) { return levels[level].duplicate(); }
+
+    //Total bytes of every mip level, which is what one texture array layer needs to upload
+    public int getDataSize() {
+        int total = 0;
+        for (int l = 0; l < levelCount; l++) total += getLevelSize(internalFormat, width >> l, height >> l);
+        return total;
+    }
+
+    public boolean hasSameLayout(KtxFile other) {
+        return internalFormat == other.internalFormat && width == other.width
+            && height == other.height && levelCount == other.levelCount;
+    }
+
+    public static boolean isSupportedFormat(int internalFormat) {
+        return internalFormat == GL_COMPRESSED_RGB_S3TC_DXT1_EXT
+            || internalFormat == GL_COMPRESSED_RGBA_S3TC_DXT1_EXT
+            || internalFormat == GL_COMPRESSED_RGBA_S3TC_DXT5_EXT
+            || internalFormat == GL_COMPRESSED_RGBA_BPTC_UNORM;
+    }
+
+    //Bytes per 4x4 block: 8 for BC1, 16 for BC3 and BC7
+    public static int getBlockBytes(int internalFormat) {
+        return internalFormat == GL_COMPRESSED_RGB_S3TC_DXT1_EXT
+            || internalFormat == GL_COMPRESSED_RGBA_S3TC_DXT1_EXT ? 8 : 16;
+    }
+
+    public static int getLevelSize(int internalFormat, int width, int height) {
+        int blocksX = (Math.max(width, 1) + 3) / 4;
+        int blocksY = (Math.max(height, 1) + 3) / 4;
+        return blocksX * blocksY * getBlockBytes(internalFormat);
+    }
+
+    //Reads the whole file with one bulk read; the level buffers are slices of a single direct buffer
+    public static KtxFile read(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocateDirect((int) channel.size());
+            while (data.hasRemaining() && channel.read(data) >= 0) { }
+            data.flip();
+            return parse(fileName, data, true);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading '" + fileName + "'", e);
+        }
+    }
+
+    //Reads only the header, for checking that a set of files can share one texture array
+    public static KtxFile readHeader(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES);
+            while (data.hasRemaining() && channel.read(data) >= 0) { }
+            data.flip();
+            return parse(fileName, data, false);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading '" + fileName + "'", e);
+        }
+    }
+
+    //Header shared by every file, or null if any is missing, unsupported or laid out differently
+    public static KtxFile readCommonHeader(List<String> fileNames) {
+        KtxFile common = null;
+        for (String fileName : fileNames) {
+            if (!new File(fileName).isFile()) return null;
+            KtxFile header;
+            try {
+                header = readHeader(fileName);
+            } catch (RuntimeException e) {
+                System.err.println(e.getMessage() + ": " + e.getCause());
+                return null;
+            }
+            if (common == null) common = header;
+            else if (!common.hasSameLayout(header)) return null;
+        }
+        return common;
+    }
+
+    private static KtxFile parse(String fileName, ByteBuffer data, boolean withLevels) {
+        if (data.remaining() < HEADER_BYTES) throw new RuntimeException("'" + fileName + "' is too short for a KTX header");
+        for (int i = 0; i < IDENTIFIER.length; i++) {
+            if (data.get(i) != IDENTIFIER[i]) throw new RuntimeException("'" + fileName + "' is not a KTX 1.1 file");
+        }
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt(12) != ENDIANNESS) data.order(ByteOrder.BIG_ENDIAN);
+
+        int glType = data.getInt(16);
+        int internalFormat = data.getInt(28);
+        int width = data.getInt(36);
+        int height = data.getInt(40);
+        int depth = data.getInt(44);
+        int arrayElements = data.getInt(48);
+        int faces = data.getInt(52);
+        int levelCount = Math.max(data.getInt(56), 1);
+        int keyValueBytes = data.getInt(60);
+
+        if (glType != 0 || !isSupportedFormat(internalFormat)) {
+            throw new RuntimeException("'" + fileName + "' is not BC1/BC3/BC7 compressed (glInternalFormat 0x"
+                + Integer.toHexString(internalFormat) + ")");
+        }
+        if (depth > 1 || arrayElements > 0 || faces != 1) {
+            throw new RuntimeException("'" + fileName + "' is not a plain 2D texture");
+        }
+        if (!withLevels) return new KtxFile(internalFormat, width, height, levelCount, null);
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        int pos = HEADER_BYTES + keyValueBytes;
+        for (int l = 0; l < levelCount; l++) {
+            int imageSize = data.getInt(pos);
+            int expected = getLevelSize(internalFormat, width >> l, height >> l);
+            if (imageSize != expected) {
+                throw new RuntimeException("'" + fileName + "' level " + l + " is " + imageSize + " bytes, expected " + expected);
+            }
+            pos += 4;
+            ByteBuffer level = data.duplicate();
+            level.limit(pos + imageSize).position(pos);
+            levels[l] = level.slice().asReadOnlyBuffer();
+            pos += (imageSize + 3) & ~3;
+        }
+        return new KtxFile(internalFormat, width, height, levelCount, levels);
+    }
+
+    public void write(String fileName) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(IDENTIFIER);
+        header.putInt(ENDIANNESS);
+        header.putInt(0);                       //glType (compressed)
+        header.putInt(1);                       //glTypeSize
+        header.putInt(0);                       //glFormat (compressed)
+        header.putInt(internalFormat);
+        header.putInt(internalFormat == GL_COMPRESSED_RGB_S3TC_DXT1_EXT ? GL_RGB : GL_RGBA);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(0);                       //pixelDepth
+        header.putInt(0);                       //numberOfArrayElements
+        header.putInt(1);                       //numberOfFaces
+        header.putInt(levelCount);
+        header.putInt(0);                       //bytesOfKeyValueData
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            ByteBuffer sizeAndPad = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int l = 0; l < levelCount; l++) {
+                ByteBuffer level = getLevel(l);
+                sizeAndPad.clear();
+                sizeAndPad.putInt(level.remaining()).flip();
+                writeFully(channel, sizeAndPad);
+                int padding = (4 - (level.remaining() & 3)) & 3;
+                writeFully(channel, level);
+                sizeAndPad.clear();
+                sizeAndPad.putInt(0).position(4 - padding);
+                writeFully(channel, sizeAndPad);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing '" + fileName + "'", e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) channel.write(data);
+    }
+}
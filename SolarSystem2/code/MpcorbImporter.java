@@ -0,0 +1,261 @@
+package code;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Streaming Importer for Minor Planet Center Orbit Files (MPCORB.DAT and Its Fixed-Width Extracts)
+//  java code.MpcorbImporter <MPCORB.DAT>    imports the file and reports the count, time and heap
+//The calling thread reads the file through a FileChannel into a small, fixed pool of byte chunks,
+//each cut after its last line break with the partial line carried into the next. Worker threads parse
+//the lines in place, column by column straight from the bytes, into a chunk-sized KeplerPropagator of
+//their own, then append that to the target in file order. Heap use is the chunk pool plus one block
+//per worker however large the file is. Lines that aren't orbit records (the header, the blank lines
+//between sections) and unbound orbits are skipped.
+public class MpcorbImporter {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int TYPICAL_LINE_BYTES = 203;
+    private static final int MIN_RECORD_BYTES = 103;  //through the semi-major axis column
+    private static final double SECONDS_PER_DAY = 86400.0;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12};
+
+    //Scene scale: Jupiter's 5.2 AU orbit is drawn at radius 520 and moves at 0.05 rad per gt unit, and every
+    //mean motion is scaled by that same factor so the belt keeps its real rates relative to Jupiter
+    static final double SCENE_UNITS_PER_AU = 100.0;
+    static final double MEAN_MOTION_SCALE = 0.05 / 0.08309;  //scene rad per gt unit, per degree/day
+
+    private static class Chunk {
+        final byte[] bytes;
+        final ByteBuffer buffer;
+        int length;
+        long sequence;
+        Chunk(int size) {
+            bytes = new byte[size];
+            buffer = ByteBuffer.wrap(bytes);
+        }
+    }
+    private static final Chunk END = new Chunk(0);
+
+    private final KeplerPropagator target;
+    private final int workers;
+    private final ArrayBlockingQueue<Chunk> free, full;
+    private final AtomicInteger skipped = new AtomicInteger();
+    private long nextAppend;
+    private volatile RuntimeException failure;
+
+    private MpcorbImporter(KeplerPropagator target, int workers) {
+        this.target = target;
+        this.workers = workers;
+        //Two chunks per worker keeps the reader one chunk ahead of every worker
+        free = new ArrayBlockingQueue<>(workers * 2);
+        full = new ArrayBlockingQueue<>(workers * 2 + workers);
+        for (int i = 0; i < workers * 2; i++) free.add(new Chunk(CHUNK_BYTES));
+    }
+
+    //Appends every orbit in the file to target; returns how many were added
+    public static int importFile(String fileName, KeplerPropagator target, int workers) {
+        int before = target.getCount();
+        new MpcorbImporter(target, Math.max(workers, 1)).run(fileName);
+        return target.getCount() - before;
+    }
+
+    private void run(String fileName) {
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            threads[i] = new Thread(this::work, "mpcorb-parser");
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            target.ensureCapacity(target.getCount() + (int) Math.min(channel.size() / TYPICAL_LINE_BYTES + 1, Integer.MAX_VALUE / 2));
+            byte[] carry = new byte[256];
+            int carried = 0;
+            long sequence = 0;
+            boolean eof = false;
+            while (!eof && failure == null) {
+                Chunk chunk = free.take();
+                System.arraycopy(carry, 0, chunk.bytes, 0, carried);
+                ByteBuffer buffer = chunk.buffer;
+                buffer.clear().position(carried);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                int filled = buffer.position();
+                int length = filled;
+                if (!eof) {
+                    while (length > 0 && chunk.bytes[length - 1] != '\n') length--;
+                    if (length == 0) throw new RuntimeException("'" + fileName + "' has a line over " + CHUNK_BYTES + " bytes");
+                }
+                carried = filled - length;
+                if (carried > carry.length) carry = new byte[Math.max(carried, carry.length * 2)];
+                System.arraycopy(chunk.bytes, length, carry, 0, carried);
+                chunk.length = length;
+                chunk.sequence = sequence++;
+                full.put(chunk);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading '" + fileName + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted reading '" + fileName + "'", e);
+        } finally {
+            stopWorkers(threads);
+        }
+        if (failure != null) throw failure;
+    }
+
+    //Runs however the reader stops, so no worker is left blocked on full for good. full has room for
+    //every END on top of every chunk, so offer() can't fail, even with this thread interrupted.
+    private void stopWorkers(Thread[] threads) {
+        for (int i = 0; i < workers; i++) full.offer(END);
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        KeplerPropagator block = new KeplerPropagator(CHUNK_BYTES / TYPICAL_LINE_BYTES + 1);
+        try {
+            while (true) {
+                Chunk chunk = full.take();
+                if (chunk == END) return;
+                block.clear();
+                try {
+                    parseChunk(chunk.bytes, chunk.length, block);
+                } catch (RuntimeException e) {
+                    failure = e;
+                    block.clear();
+                }
+                long sequence = chunk.sequence;
+                free.put(chunk);
+                appendInOrder(sequence, block);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Chunks can finish out of order; each waits for the one before it, which is always being parsed
+    //(the reader hands them out in order), so file order is kept without any chunk getting stuck
+    private synchronized void appendInOrder(long sequence, KeplerPropagator block) throws InterruptedException {
+        while (nextAppend != sequence) wait();
+        target.addAll(block);
+        nextAppend++;
+        notifyAll();
+    }
+
+    private void parseChunk(byte[] b, int length, KeplerPropagator block) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (b[i] != '\n') continue;
+            int end = i > start && b[i - 1] == '\r' ? i - 1 : i;
+            if (!parseLine(b, start, end, block)) skipped.incrementAndGet();
+            start = i + 1;
+        }
+        if (start < length && !parseLine(b, start, length, block)) skipped.incrementAndGet();
+    }
+
+    //Columns (1-based, inclusive): epoch 21-25, M 27-35, periapsis 38-46, node 49-57, i 60-68,
+    //e 71-79, n 81-91 (degrees/day), a 93-103 (AU); angles in degrees at the epoch, J2000 ecliptic
+    private static boolean parseLine(byte[] b, int start, int end, KeplerPropagator block) {
+        if (end - start < MIN_RECORD_BYTES) return false;
+        double epochDays = parseEpoch(b, start + 20);
+        double m = parseField(b, start + 26, start + 35);
+        double periapsis = parseField(b, start + 37, start + 46);
+        double node = parseField(b, start + 48, start + 57);
+        double i = parseField(b, start + 59, start + 68);
+        double e = parseField(b, start + 70, start + 79);
+        double n = parseField(b, start + 80, start + 91);
+        double a = parseField(b, start + 92, start + 103);
+        //NaN marks a field that didn't parse, and fails every comparison
+        if (!(epochDays == epochDays && m == m && periapsis == periapsis && node == node && i == i
+              && e >= 0.0 && e < 1.0 && n > 0.0 && a > 0.0)) {
+            return false;
+        }
+        block.add(a * SCENE_UNITS_PER_AU, e, Math.toRadians(i), Math.toRadians(node), Math.toRadians(periapsis),
+                  Math.toRadians(m), n * MEAN_MOTION_SCALE, epochDays * SECONDS_PER_DAY * 10.0);  //gt units
+        return true;
+    }
+
+    //Right-aligned decimal in b[from, to), e.g. "  2.7660512"; NaN unless it's one
+    static double parseField(byte[] b, int from, int to) {
+        int i = from;
+        while (i < to && b[i] == ' ') i++;
+        boolean negative = i < to && b[i] == '-';
+        if (negative) i++;
+        long mantissa = 0;
+        int digits = 0, fraction = -1;
+        for (; i < to; i++) {
+            int c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) return Double.NaN;
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction >= 0) fraction++;
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0 || fraction >= POW10.length) return Double.NaN;
+        //Exact mantissa over an exact power of ten rounds the same as Double.parseDouble
+        double value = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+        return negative ? -value : value;
+    }
+
+    //Packed date such as "K2555" (2025-05-05, 0h TT) as days since 1970-01-01; NaN if malformed
+    static double parseEpoch(byte[] b, int at) {
+        int century = b[at] - 'I' + 18;
+        int tens = b[at + 1] - '0', ones = b[at + 2] - '0';
+        int month = packedDigit(b[at + 3]), day = packedDigit(b[at + 4]);
+        if (century < 18 || century > 20 || tens < 0 || tens > 9 || ones < 0 || ones > 9
+            || month < 1 || month > 12 || day < 1 || day > 31) {
+            return Double.NaN;
+        }
+        return daysFromCivil(century * 100 + tens * 10 + ones, month, day);
+    }
+
+    //1-9 then A-V for 10-31
+    private static int packedDigit(byte c) {
+        if (c >= '1' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'V') return c - 'A' + 10;
+        return -1;
+    }
+
+    //Days from 1970-01-01 to a proleptic Gregorian date
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    public int getSkipped() { return skipped.get(); }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("usage: java code.MpcorbImporter <MPCORB.DAT>");
+            System.exit(2);
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        KeplerPropagator orbits = new KeplerPropagator(1);
+        long start = System.nanoTime();
+        MpcorbImporter importer = new MpcorbImporter(orbits, workers);
+        importer.run(args[0]);
+        double millis = (System.nanoTime() - start) / 1e6;
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%d orbits (%d lines skipped) in %.0f ms on %d workers, heap %d MB used of %d MB%n",
+                          orbits.getCount(), importer.getSkipped(), millis, workers,
+                          (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20);
+    }
+}
@@ -0,0 +1,423 @@
+package code;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Newtonian Gravity for Many Bodies: Barnes-Hut Octree, Fork-Join Passes, Leapfrog Integration
+//The physical alternative (-Dnbody=true) to KeplerPropagator's fixed ellipses: every body pulls on every
+//other, and kick-drift-kick leapfrog advances them. Leapfrog is symplectic, so energy errors stay bounded
+//and orbits neither spiral in nor out over long runs the way they do under Euler steps.
+//Each force evaluation sorts the bodies along a Morton (Z-order) curve and builds an octree over that
+//order, every node a contiguous run of it. Levels where a whole run falls in one octant are skipped, so
+//every inner node has at least two children, there are under two nodes per body, and the node arrays
+//are sized once. A body's force then comes from walking the tree, taking a node's mass as a point once
+//the body is farther than size / THETA plus the center of mass's offset from the cell's center (which
+//keeps a lopsided cell from being treated as a point by a body just outside it), for O(n log n) a
+//step. Subtrees over PARALLEL_BUILD bodies are built as separate tasks, and the force and integration
+//passes run in CHUNK-sized ranges, all on the given ForkJoinPool (the force pass in sorted order, so
+//neighbouring tasks walk the same nodes).
+//Units are the scene's: scene units, gt, and masses as G * m.
+public class NBodySimulation {
+    //G * M of the sun such that a circular orbit's period matches MpcorbImporter's scaled mean motions:
+    //0.9856 degrees/day, Earth's real rate, at 1 AU
+    static final double GM_SUN = Math.pow(0.9856076686 * MpcorbImporter.MEAN_MOTION_SCALE, 2.0)
+                                 * Math.pow(MpcorbImporter.SCENE_UNITS_PER_AU, 3.0);
+    private static final double THETA = 0.5;
+    private static final double SOFTENING = 0.05;  //scene units, keeps close passes finite
+    //Longest single step (gt) and most steps advance() takes; Mercury's orbit is ~2.7 gt
+    private static final double MAX_STEP = 0.02;
+    private static final int MAX_SUBSTEPS = 32;
+    //Most time one advance() covers; anything longer would need steps too long for the inner orbits
+    static final double MAX_ADVANCE = MAX_SUBSTEPS * MAX_STEP;
+
+    //Sort keys: a 42 bit Morton code (14 bits per axis) above a 21 bit body index
+    private static final int MORTON_BITS = 14;
+    private static final int INDEX_BITS = 21;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    static final int MAX_BODIES = 1 << INDEX_BITS;
+    private static final int LEAF_SIZE = 8;
+    private static final int STACK_DEPTH = 8 * (MORTON_BITS + 1);
+    //buildNode's child run starts: 9 per level, since an inner node's level rises down every call chain
+    private static final int STARTS_SIZE = 9 * MORTON_BITS;
+    private static final int CHUNK = 2048;
+    private static final int PARALLEL_BUILD = 16384;
+
+    private final ForkJoinPool pool;
+    private int count;
+    private double time;
+    private boolean accelerationsValid;
+    //Structure of arrays, one entry per body
+    private double[] mass, x, y, z, vx, vy, vz, ax, ay, az;
+    private long[] keys;
+    private int[] order;  //body at each position in Morton order
+
+    //Octree, node 0 the root; a leaf has child -1 and covers order[from, to)
+    private double[] nodeMass, nodeX, nodeY, nodeZ;
+    private double[] nodeOpen;  //squared distance inside which the node must be opened
+    private int[] nodeChild, nodeChildCount, nodeFrom, nodeTo;
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private double rootX, rootY, rootZ, rootSize;
+
+    //Latest positions as floats for a renderer on another thread; see publishPositions
+    public interface PositionReader {
+        void read(float[] xyz, int count);
+    }
+    private float[] published = new float[0], back = new float[0];
+    private int publishedCount;
+    private volatile long publishedVersion;
+
+    public NBodySimulation(int initialCapacity, ForkJoinPool pool) {
+        this.pool = pool;
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        mass = grow(mass, capacity);
+        x = grow(x, capacity); y = grow(y, capacity); z = grow(z, capacity);
+        vx = grow(vx, capacity); vy = grow(vy, capacity); vz = grow(vz, capacity);
+        ax = grow(ax, capacity); ay = grow(ay, capacity); az = grow(az, capacity);
+        keys = new long[capacity];
+        order = new int[capacity];
+        int nodes = capacity * 2;
+        nodeMass = new double[nodes];
+        nodeX = new double[nodes]; nodeY = new double[nodes]; nodeZ = new double[nodes];
+        nodeOpen = new double[nodes];
+        nodeChild = new int[nodes]; nodeChildCount = new int[nodes];
+        nodeFrom = new int[nodes]; nodeTo = new int[nodes];
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    //mass is G * m; returns the body's index
+    public int add(double mass, double x, double y, double z, double vx, double vy, double vz) {
+        if (count == MAX_BODIES) throw new IllegalStateException("over " + MAX_BODIES + " bodies");
+        if (count == this.mass.length) allocate(Math.min(count * 2, MAX_BODIES));
+        int k = count++;
+        this.mass[k] = mass;
+        this.x[k] = x; this.y[k] = y; this.z[k] = z;
+        this.vx[k] = vx; this.vy[k] = vy; this.vz[k] = vz;
+        accelerationsValid = false;
+        return k;
+    }
+
+    //Body k of orbits at the current time, placed and moving as if orbiting body center alone
+    //(scratch holds 6 doubles)
+    public int addOrbit(KeplerPropagator orbits, int k, double mass, int center, double[] scratch) {
+        orbits.stateVector(k, time, this.mass[center], scratch);
+        return add(mass, x[center] + scratch[0], y[center] + scratch[1], z[center] + scratch[2],
+                   vx[center] + scratch[3], vy[center] + scratch[4], vz[center] + scratch[5]);
+    }
+
+    //Shifts every velocity so total momentum is zero, keeping the system from drifting off as a whole
+    public void removeMomentum() {
+        double total = 0.0, px = 0.0, py = 0.0, pz = 0.0;
+        for (int k = 0; k < count; k++) {
+            total += mass[k];
+            px += mass[k] * vx[k]; py += mass[k] * vy[k]; pz += mass[k] * vz[k];
+        }
+        if (total <= 0.0) return;
+        for (int k = 0; k < count; k++) {
+            vx[k] -= px / total; vy[k] -= py / total; vz[k] -= pz / total;
+        }
+    }
+
+    public int getCount() { return count; }
+    public double getTime() { return time; }
+    public void setTime(double time) { this.time = time; }
+
+    //Advances by delta gt in equal steps of at most MAX_STEP, but by no more than MAX_ADVANCE in one call.
+    //Longer steps would throw the inner planets out of the system for good, so past that the simulation
+    //falls behind the caller's clock instead (getTime() says by how much) and catches up on later calls.
+    public void advance(double delta) {
+        if (delta == 0.0 || count == 0) return;
+        delta = Math.max(-MAX_ADVANCE, Math.min(MAX_ADVANCE, delta));
+        int steps = (int) Math.ceil(Math.abs(delta) / MAX_STEP);
+        double dt = delta / steps;
+        for (int s = 0; s < steps; s++) step(dt);
+    }
+
+    //One kick-drift-kick leapfrog step; dt may be negative
+    public void step(double dt) {
+        if (!accelerationsValid) computeAccelerations();
+        double half = dt * 0.5;
+        pool.invoke(new RangeTask(0, count, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                vx[k] += ax[k] * half; vy[k] += ay[k] * half; vz[k] += az[k] * half;
+                x[k] += vx[k] * dt; y[k] += vy[k] * dt; z[k] += vz[k] * dt;
+            }
+        }));
+        computeAccelerations();
+        pool.invoke(new RangeTask(0, count, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                vx[k] += ax[k] * half; vy[k] += ay[k] * half; vz[k] += az[k] * half;
+            }
+        }));
+        time += dt;
+    }
+
+    private void computeAccelerations() {
+        if (count > 0) {
+            buildTree();
+            pool.invoke(new RangeTask(0, count, this::accelerate));
+        }
+        accelerationsValid = true;
+    }
+
+    //Morton keys over the bounding cube, sorted, then the tree from the root down
+    private void buildTree() {
+        double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for (int k = 0; k < count; k++) {
+            minX = Math.min(minX, x[k]); maxX = Math.max(maxX, x[k]);
+            minY = Math.min(minY, y[k]); maxY = Math.max(maxY, y[k]);
+            minZ = Math.min(minZ, z[k]); maxZ = Math.max(maxZ, z[k]);
+        }
+        rootX = minX; rootY = minY; rootZ = minZ;
+        rootSize = Math.max(Math.max(maxX - minX, maxY - minY), Math.max(maxZ - minZ, SOFTENING));
+        double scale = (1 << MORTON_BITS) / rootSize;
+        pool.invoke(new RangeTask(0, count, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                long code = spread(cell(x[k] - rootX, scale)) << 2 | spread(cell(y[k] - rootY, scale)) << 1
+                            | spread(cell(z[k] - rootZ, scale));
+                keys[k] = code << INDEX_BITS | k;
+            }
+        }));
+        Arrays.parallelSort(keys, 0, count);
+        for (int s = 0; s < count; s++) order[s] = (int) (keys[s] & INDEX_MASK);
+        nodeCount.set(1);
+        pool.invoke(new BuildTask(0, 0, count, 0));
+    }
+
+    private static int cell(double offset, double scale) {
+        return (int) Math.min(Math.max(offset * scale, 0.0), (1 << MORTON_BITS) - 1);
+    }
+
+    //Bits of v moved three apart, for interleaving into a Morton code
+    private static long spread(int v) {
+        long b = v & 0x1FFFFFL;
+        b = (b | b << 32) & 0x1F00000000FFFFL;
+        b = (b | b << 16) & 0x1F0000FF0000FFL;
+        b = (b | b << 8) & 0x100F00F00F00F00FL;
+        b = (b | b << 4) & 0x10C30C30C30C30C3L;
+        b = (b | b << 2) & 0x1249249249249249L;
+        return b;
+    }
+
+    //Inverse of spread: every third bit of b, from bit 0, packed together
+    private static int compact(long b) {
+        b &= 0x1249249249249249L;
+        b = (b ^ (b >>> 2)) & 0x10C30C30C30C30C3L;
+        b = (b ^ (b >>> 4)) & 0x100F00F00F00F00FL;
+        b = (b ^ (b >>> 8)) & 0x1F0000FF0000FFL;
+        b = (b ^ (b >>> 16)) & 0x1F00000000FFFFL;
+        b = (b ^ (b >>> 32)) & 0x1FFFFFL;
+        return (int) b;
+    }
+
+    private static int octant(long key, int level) {
+        return (int) (key >>> (INDEX_BITS + 3 * (MORTON_BITS - 1 - level))) & 7;
+    }
+
+    //Node over order[from, to), whose keys agree on every octant above level; starts is the calling
+    //task's scratch (STARTS_SIZE), each level using its own nine entries
+    private void buildNode(int node, int from, int to, int level, int[] starts) {
+        while (level < MORTON_BITS && to - from > LEAF_SIZE && octant(keys[from], level) == octant(keys[to - 1], level)) {
+            level++;
+        }
+        nodeFrom[node] = from;
+        nodeTo[node] = to;
+        if (to - from <= LEAF_SIZE || level == MORTON_BITS) {
+            nodeChild[node] = -1;
+            double m = 0.0, cx = 0.0, cy = 0.0, cz = 0.0;
+            for (int s = from; s < to; s++) {
+                int k = order[s];
+                m += mass[k];
+                cx += mass[k] * x[k]; cy += mass[k] * y[k]; cz += mass[k] * z[k];
+            }
+            setCenter(node, m, cx, cy, cz, from, level);
+            return;
+        }
+
+        //Keys are sorted, so each octant present at this level is one run
+        int children = 0;
+        int base = level * 9;
+        for (int s = from; s < to; ) {
+            int end = octantEnd(s, to, level);
+            starts[base + children++] = s;
+            s = end;
+        }
+        starts[base + children] = to;
+        int first = nodeCount.getAndAdd(children);
+        nodeChild[node] = first;
+        nodeChildCount[node] = children;
+        if (to - from > PARALLEL_BUILD) {
+            BuildTask[] tasks = new BuildTask[children];
+            for (int c = 0; c < children; c++) {
+                tasks[c] = new BuildTask(first + c, starts[base + c], starts[base + c + 1], level + 1);
+            }
+            RecursiveAction.invokeAll(tasks);
+        } else {
+            for (int c = 0; c < children; c++) buildNode(first + c, starts[base + c], starts[base + c + 1], level + 1, starts);
+        }
+
+        double m = 0.0, cx = 0.0, cy = 0.0, cz = 0.0;
+        for (int c = first; c < first + children; c++) {
+            m += nodeMass[c];
+            cx += nodeMass[c] * nodeX[c]; cy += nodeMass[c] * nodeY[c]; cz += nodeMass[c] * nodeZ[c];
+        }
+        setCenter(node, m, cx, cy, cz, from, level);
+    }
+
+    //Center of mass and opening distance of a node whose cell is at level; a massless node (test
+    //particles only) sits on one of its bodies and pulls nothing
+    private void setCenter(int node, double m, double cx, double cy, double cz, int from, int level) {
+        nodeMass[node] = m;
+        if (m > 0.0) {
+            nodeX[node] = cx / m; nodeY[node] = cy / m; nodeZ[node] = cz / m;
+        } else {
+            int k = order[from];
+            nodeX[node] = x[k]; nodeY[node] = y[k]; nodeZ[node] = z[k];
+        }
+        //The cell is the one the first key's top 3 * level Morton bits name
+        double side = rootSize / (1 << level);
+        long cell = keys[from] >>> (INDEX_BITS + 3 * (MORTON_BITS - level));
+        double ox = nodeX[node] - (rootX + (compact(cell >>> 2) + 0.5) * side);
+        double oy = nodeY[node] - (rootY + (compact(cell >>> 1) + 0.5) * side);
+        double oz = nodeZ[node] - (rootZ + (compact(cell) + 0.5) * side);
+        double open = side / THETA + Math.sqrt(ox * ox + oy * oy + oz * oz);
+        nodeOpen[node] = open * open;
+    }
+
+    //First index in [from, to) past the octant keys[from] is in, by binary search
+    private int octantEnd(int from, int to, int level) {
+        int target = octant(keys[from], level);
+        int lo = from + 1, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (octant(keys[mid], level) <= target) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    //Accelerations of the bodies at sorted positions [from, to)
+    private void accelerate(int from, int to) {
+        int[] stack = new int[STACK_DEPTH];
+        double eps2 = SOFTENING * SOFTENING;
+        for (int s = from; s < to; s++) {
+            int i = order[s];
+            double px = x[i], py = y[i], pz = z[i];
+            double fx = 0.0, fy = 0.0, fz = 0.0;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                double dx = nodeX[node] - px, dy = nodeY[node] - py, dz = nodeZ[node] - pz;
+                double d2 = dx * dx + dy * dy + dz * dz;
+                if (d2 > nodeOpen[node]) {
+                    //Far enough to be a point; never true of a node containing the body itself
+                    d2 += eps2;
+                    double f = nodeMass[node] / (d2 * Math.sqrt(d2));
+                    fx += dx * f; fy += dy * f; fz += dz * f;
+                } else if (nodeChild[node] < 0) {
+                    for (int t = nodeFrom[node]; t < nodeTo[node]; t++) {
+                        int j = order[t];
+                        if (j == i) continue;
+                        double ex = x[j] - px, ey = y[j] - py, ez = z[j] - pz;
+                        double e2 = ex * ex + ey * ey + ez * ez + eps2;
+                        double f = mass[j] / (e2 * Math.sqrt(e2));
+                        fx += ex * f; fy += ey * f; fz += ez * f;
+                    }
+                } else {
+                    int first = nodeChild[node];
+                    for (int c = first + nodeChildCount[node] - 1; c >= first; c--) stack[top++] = c;
+                }
+            }
+            ax[i] = fx; ay[i] = fy; az[i] = fz;
+        }
+    }
+
+    //Positions of bodies [from, to) relative to body origin, as doubles at dest[offset...]
+    public void copyPositions(int from, int to, int origin, double[] dest, int offset) {
+        double ox = x[origin], oy = y[origin], oz = z[origin];
+        for (int k = from; k < to; k++) {
+            int o = offset + (k - from) * 3;
+            dest[o] = x[k] - ox; dest[o + 1] = y[k] - oy; dest[o + 2] = z[k] - oz;
+        }
+    }
+
+    //Publishes the positions of bodies [from, to), relative to body origin, for readPublished on another
+    //thread; only the swap waits for a reader, the copy goes into a buffer no reader can see
+    public void publishPositions(int from, int to, int origin) {
+        int n = to - from;
+        if (back.length < n * 3) back = new float[n * 3];
+        double ox = x[origin], oy = y[origin], oz = z[origin];
+        for (int k = from; k < to; k++) {
+            int o = (k - from) * 3;
+            back[o] = (float) (x[k] - ox); back[o + 1] = (float) (y[k] - oy); back[o + 2] = (float) (z[k] - oz);
+        }
+        synchronized (this) {
+            float[] swap = published;
+            published = back;
+            back = swap;
+            publishedCount = n;
+        }
+        publishedVersion++;
+    }
+
+    //Bumped by every publishPositions
+    public long getPublishedVersion() { return publishedVersion; }
+
+    //Hands reader the latest published positions, holding off the next publish until it returns
+    public synchronized void readPublished(PositionReader reader) {
+        reader.read(published, publishedCount);
+    }
+
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    //Splits [from, to) in halves down to CHUNK-sized ranges
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final Range range;
+
+        RangeTask(int from, int to, Range range) {
+            this.from = from;
+            this.to = to;
+            this.range = range;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, mid, range), new RangeTask(mid, to, range));
+                return;
+            }
+            range.run(from, to);
+        }
+    }
+
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int node, from, to, level;
+
+        BuildTask(int node, int from, int to, int level) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            buildNode(node, from, to, level, new int[STARTS_SIZE]);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package code;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+//Correctness Check: Graphics2D Redraw (getRGBAPixelData) vs Direct Raster Conversion (getRGBAPixelBuffer)
+//  java code.PixelConversionCheck [image...]
+//Without arguments it runs on generated 2048x1024 images of each common BufferedImage type. Every case
+//compares the two paths channel by channel against a tolerance for its type and exits with status 1 if
+//any is over. The types getRGBAPixelBuffer reads directly must match exactly (translucent ones within
+//premultiplied-alpha rounding); the rest go through getRGB, which converts linear colour spaces such as
+//USHORT_GRAY's differently from Graphics2D, so their difference is only reported.
+//Timing lives in the JMH PixelDataBenchmark (bench/).
+public class PixelConversionCheck {
+    private static final int UNCHECKED = -1;
+
+    public static void main(String[] args) throws Exception {
+        boolean ok = true;
+        if (args.length == 0) {
+            int[] types = {
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_BYTE_GRAY,
+                BufferedImage.TYPE_USHORT_GRAY
+            };
+            String[] names = {"3BYTE_BGR", "4BYTE_ABGR", "INT_ARGB", "INT_RGB", "INT_BGR", "BYTE_GRAY", "USHORT_GRAY (fallback)"};
+            for (int i = 0; i < types.length; i++) ok &= check(names[i], generate(2048, 1024, types[i]));
+        } else {
+            for (String file : args) ok &= check(file, ImageIO.read(new File(file)));
+        }
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean check(String name, BufferedImage img) {
+        int maxDiff = compare(Utils.getRGBAPixelData(img, true), Utils.getRGBAPixelBuffer(img, true));
+        int tolerance = getTolerance(img.getType());
+        boolean ok = tolerance == UNCHECKED || maxDiff <= tolerance;
+        System.out.printf("%-22s %5dx%-5d  max diff %3d  %s%n", name, img.getWidth(), img.getHeight(), maxDiff,
+            tolerance == UNCHECKED ? "(not checked)" : ok ? "ok" : "FAILED, tolerance " + tolerance);
+        return ok;
+    }
+
+    //Per-channel difference allowed for each type getRGBAPixelBuffer converts without getRGB
+    private static int getTolerance(int type) {
+        switch (type) {
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return 0;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_INT_ARGB:
+                return 1;
+            default:
+                return UNCHECKED;
+        }
+    }
+
+    //Largest per-channel difference. Fully transparent pixels are skipped since Graphics2D zeroes their
+    //colour, and faint translucent ones may differ by its rounding through premultiplied alpha.
+    private static int compare(byte[] expected, ByteBuffer actual) {
+        if (expected.length != actual.remaining()) throw new IllegalStateException("sizes differ");
+        int maxDiff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if ((actual.get(i | 3) & 0xFF) == 0) continue;
+            maxDiff = Math.max(maxDiff, Math.abs((expected[i] & 0xFF) - (actual.get(i) & 0xFF)));
+        }
+        return maxDiff;
+    }
+
+    private static BufferedImage generate(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 128 + random.nextInt(128)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), 50 + random.nextInt(400), 50 + random.nextInt(400));
+        }
+        g.dispose();
+        return img;
+    }
+}
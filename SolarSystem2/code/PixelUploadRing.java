@@ -0,0 +1,90 @@
+package code;
+
+import java.nio.*;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+//Ring of GL_PIXEL_UNPACK_BUFFER Staging Buffers for Asynchronous Texture Uploads
+//Uses persistently mapped storage (GL 4.4 / ARB_buffer_storage) when available, otherwise
+//orphans and maps the buffer for each upload. A fence per slot tells us when the GPU has
+//finished reading it, so a slot is never rewritten while its copy is still in flight.
+public class PixelUploadRing {
+    private final int slotSize;
+    private final boolean persistent;
+    private final int[] pbos;
+    private final long[] fences;
+    private final ByteBuffer[] mapped;
+    private int next;
+
+    //Must be created on the GL thread
+    public PixelUploadRing(int slots, int slotSize) {
+        GL4 gl = (GL4) GLContext.getCurrentGL();
+        this.slotSize = slotSize;
+        this.persistent = gl.isFunctionAvailable("glBufferStorage");
+        pbos = new int[slots];
+        fences = new long[slots];
+        mapped = new ByteBuffer[slots];
+
+        gl.glGenBuffers(slots, pbos, 0);
+        for (int i = 0; i < slots; i++) {
+            gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[i]);
+            if (persistent) {
+                int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+                gl.glBufferStorage(GL_PIXEL_UNPACK_BUFFER, slotSize, null, flags);
+                mapped[i] = gl.glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, slotSize, flags);
+            } else {
+                gl.glBufferData(GL_PIXEL_UNPACK_BUFFER, slotSize, null, GL_STREAM_DRAW);
+            }
+        }
+        gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    //Next free slot, or -1 when every slot is still being read by the GPU (never blocks)
+    public int acquire(GL4 gl) {
+        int slot = next;
+        if (fences[slot] != 0) {
+            int status = gl.glClientWaitSync(fences[slot], 0, 0);
+            if (status == GL_TIMEOUT_EXPIRED) return -1;
+            gl.glDeleteSync(fences[slot]);
+            fences[slot] = 0;
+        }
+        next = (next + 1) % pbos.length;
+        return slot;
+    }
+
+    //Writable view of the slot; in orphaning mode the old storage is discarded first
+    public ByteBuffer map(GL4 gl, int slot) {
+        if (persistent) {
+            mapped[slot].clear();
+            return mapped[slot];
+        }
+        gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[slot]);
+        gl.glBufferData(GL_PIXEL_UNPACK_BUFFER, slotSize, null, GL_STREAM_DRAW);
+        return gl.glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, slotSize,
+                                   GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+    }
+
+    //Leaves the slot bound to GL_PIXEL_UNPACK_BUFFER, so glTex*Image calls take a byte offset into it
+    public void bindForUpload(GL4 gl, int slot) {
+        gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[slot]);
+        if (!persistent) gl.glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+    }
+
+    //Call after the upload commands; fences the slot and unbinds it
+    public void release(GL4 gl, int slot) {
+        fences[slot] = gl.glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    //Deletes the buffers and fences; GL keeps a buffer alive until copies already queued from it finish
+    public void dispose(GL4 gl) {
+        for (int i = 0; i < pbos.length; i++) {
+            if (fences[i] != 0) gl.glDeleteSync(fences[i]);
+            fences[i] = 0;
+        }
+        gl.glDeleteBuffers(pbos.length, pbos, 0);
+    }
+
+    public int getSlotSize() { return slotSize; }
+    public boolean isPersistent() { return persistent; }
+}
@@ -0,0 +1,21 @@
+package code;
+
+//Draw Calls & Triangles Submitted in the Current Frame
+//Every glDraw* site reports here; reset at the start of each frame
+public class RenderStats {
+    private int drawCalls;
+    private long triangles;
+
+    public void beginFrame() {
+        drawCalls = 0;
+        triangles = 0;
+    }
+
+    public void draw(long triangleCount) {
+        drawCalls++;
+        triangles += triangleCount;
+    }
+
+    public int getDrawCalls() { return drawCalls; }
+    public long getTriangles() { return triangles; }
+}
@@ -0,0 +1,187 @@
+package code;
+
+import java.nio.*;
+import java.lang.Math;
+import java.util.Random;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+import org.joml.*;
+
+//One Planet's Ring System, Drawn at Two Levels of Detail
+//Far away the rings are a single textured annulus; the texture is a radial strip, u running from the
+//inner to the outer edge, whose alpha is the ring density. Close up they become a field of particles on
+//circular orbits, solved on the GPU by an AsteroidRenderer, placed by that same density and colored from
+//the same texture. The two cross-fade over a band of camera distances and the particles are only drawn
+//while they have any weight. The texture is decoded off the GL thread (that alone takes most of a
+//second), once, into a single-row strip that both the annulus and the particle placement use; the
+//rings are skipped until it is uploaded, and the annulus stands in at every distance until the
+//particles' orbits follow. A texture that fails to decode leaves the rings out, and one with no alpha
+//anywhere gets no particles; both are logged.
+public class RingRenderer {
+    private static final int SEGMENTS = 256;
+    private static final int PARTICLES = 150000;
+    //Texels across the strip; the source's rows are all one radial profile, so one row is kept
+    private static final int TEXTURE_WIDTH = 4096;
+    //Camera distance, in planet radii, where the particles are fully in and fully out
+    private static final float NEAR_FULL = 6.0f, NEAR_NONE = 12.0f;
+    //Mean motion at the inner edge (radians per gt unit), falling off as radius^-1.5 outward
+    private static final double INNER_MEAN_MOTION = 0.01;
+    private static final double THICKNESS = 0.002;  //radians of inclination scatter
+
+    private final String textureFile;
+    private final float inner, outer;
+    private final int meshVbo, texture, tintLoc;
+    private final AsteroidRenderer particles;
+    private volatile ByteBuffer texturePixels;  //set once decoded, then uploaded on the first draw
+    private boolean textureUploaded;
+    private volatile KeplerPropagator particleOrbits;  //set once generated, then uploaded on first use
+    private boolean particlesUploaded;
+
+    //Must be created on the GL thread with the rendering program in use; radii are in planet radii
+    public RingRenderer(int program, String textureFile, float inner, float outer) {
+        GL4 gl = (GL4) GLContext.getCurrentGL();
+        this.textureFile = textureFile;
+        this.inner = inner;
+        this.outer = outer;
+        int[] buffers = new int[3];
+        gl.glGenBuffers(3, buffers, 0);
+        meshVbo = buffers[0];
+        particles = new AsteroidRenderer(program, buffers[1], buffers[2]);
+        particles.setTextureRange(inner, outer);
+        tintLoc = gl.glGetUniformLocation(program, "tintColor");
+
+        int[] textures = new int[1];
+        gl.glGenTextures(1, textures, 0);
+        texture = textures[0];
+        setupAnnulus(gl);
+
+        Thread generator = new Thread(this::decode, "ring-particles");
+        generator.setDaemon(true);
+        generator.start();
+    }
+
+    //Triangle strip alternating inner and outer edge, position xyz then texcoord uv, in the XZ plane
+    private void setupAnnulus(GL4 gl) {
+        float[] data = new float[(SEGMENTS + 1) * 2 * 5];
+        int o = 0;
+        for (int s = 0; s <= SEGMENTS; s++) {
+            double angle = 2.0 * Math.PI * s / SEGMENTS;
+            float sin = (float) Math.sin(angle), cos = (float) Math.cos(angle);
+            data[o++] = inner * sin; data[o++] = 0.0f; data[o++] = inner * cos; data[o++] = 0.0f; data[o++] = 0.5f;
+            data[o++] = outer * sin; data[o++] = 0.0f; data[o++] = outer * cos; data[o++] = 1.0f; data[o++] = 0.5f;
+        }
+        gl.glBindBuffer(GL_ARRAY_BUFFER, meshVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, data.length * 4, Buffers.newDirectFloatBuffer(data), GL_STATIC_DRAW);
+    }
+
+    //The texture, then particle radii drawn in proportion to its alpha at that radius, so gaps stay empty.
+    //Each particle picks a texel from the alpha's running sum, then a radius within it.
+    private void decode() {
+        ByteBuffer profile;
+        try {
+            profile = Utils.decodeTextureLayer(textureFile, TEXTURE_WIDTH, 1);
+        } catch (RuntimeException e) {
+            System.err.println("Rings '" + textureFile + "' failed to load and won't be drawn: " + e);
+            return;
+        }
+        texturePixels = profile;
+        long[] cumulative = new long[TEXTURE_WIDTH];
+        long total = 0;
+        for (int i = 0; i < TEXTURE_WIDTH; i++) {
+            total += profile.get(i * 4 + 3) & 0xFF;
+            cumulative[i] = total;
+        }
+        if (total == 0) {
+            System.err.println("Rings '" + textureFile + "' have no alpha, drawing them without particles");
+            return;
+        }
+        KeplerPropagator orbits = new KeplerPropagator(PARTICLES);
+        Random random = new Random(7);
+        while (orbits.getCount() < PARTICLES) {
+            //First texel whose running sum passes the target; zero-alpha texels never are
+            long target = (long) (random.nextDouble() * total);
+            int texel = 0, end = TEXTURE_WIDTH - 1;
+            while (texel < end) {
+                int mid = (texel + end) >>> 1;
+                if (cumulative[mid] > target) end = mid;
+                else texel = mid + 1;
+            }
+            double u = (texel + random.nextDouble()) / TEXTURE_WIDTH;
+            double r = inner + u * (outer - inner);
+            orbits.add(r, 0.0, random.nextGaussian() * THICKNESS, random.nextDouble() * 2.0 * Math.PI, 0.0,
+                       random.nextDouble() * 2.0 * Math.PI, INNER_MEAN_MOTION * Math.pow(r / inner, -1.5), 0.0);
+        }
+        particleOrbits = orbits;
+    }
+
+    //A strip this small uploads and builds its mip chain in well under a millisecond
+    private void uploadTexture(GL4 gl, ByteBuffer pixels) {
+        gl.glBindTexture(GL_TEXTURE_2D, texture);
+        gl.glTexStorage2D(GL_TEXTURE_2D, Utils.getMipLevelCount(TEXTURE_WIDTH, 1), GL_RGBA8, TEXTURE_WIDTH, 1);
+        gl.glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, TEXTURE_WIDTH, 1, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        gl.glGenerateMipmap(GL_TEXTURE_2D);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        if (gl.isExtensionAvailable("GL_EXT_texture_filter_anisotropic")) {
+            float[] anisotropy = new float[1];
+            gl.glGetFloatv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy, 0);
+            gl.glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy[0]);
+        }
+        texturePixels = null;
+        textureUploaded = true;
+    }
+
+    //Weight of the particle field (0 far, 1 near) for a camera this many planet radii away
+    public static float getNearWeight(float distanceInRadii) {
+        return 1.0f - Code.smoothstep(NEAR_FULL, NEAR_NONE, distanceInRadii);
+    }
+
+    //ringMatrix places the ring plane (XZ, radii in planet radii) in view space. Leaves vertex
+    //attributes 0 and 1 pointing at the annulus, so the caller sets its own back up afterwards.
+    //Draws nothing until the texture has been decoded.
+    public void draw(GL4 gl, Matrix4fc ringMatrix, int mvLoc, FloatBuffer vals, float nearWeight, double gt, RenderStats stats) {
+        if (!textureUploaded) {
+            ByteBuffer pixels = texturePixels;
+            if (pixels == null) return;
+            uploadTexture(gl, pixels);
+        }
+        if (nearWeight > 0.0f && !particlesUploaded) {
+            KeplerPropagator orbits = particleOrbits;
+            if (orbits == null) {
+                nearWeight = 0.0f;
+            } else {
+                particles.upload(gl, orbits, gt);
+                particlesUploaded = true;
+            }
+        }
+        gl.glEnable(GL_BLEND);
+        gl.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        gl.glDepthMask(false);
+        gl.glDisable(GL_CULL_FACE);
+        gl.glUniformMatrix4fv(mvLoc, 1, false, ringMatrix.get(vals));
+        gl.glActiveTexture(GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_2D, texture);
+
+        if (nearWeight < 1.0f) {
+            gl.glUniform4f(tintLoc, 1.0f, 1.0f, 1.0f, 1.0f - nearWeight);
+            gl.glBindBuffer(GL_ARRAY_BUFFER, meshVbo);
+            gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 20, 0L);
+            gl.glEnableVertexAttribArray(0);
+            gl.glVertexAttribPointer(1, 2, GL_FLOAT, false, 20, 12L);
+            gl.glEnableVertexAttribArray(1);
+            gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, (SEGMENTS + 1) * 2);
+            stats.draw(SEGMENTS * 2);
+        }
+        if (nearWeight > 0.0f) {
+            gl.glUniform4f(tintLoc, 1.0f, 1.0f, 1.0f, nearWeight);
+            particles.draw(gl, ringMatrix, gt, 2.0f, null, 0, stats);
+        }
+
+        gl.glUniform4f(tintLoc, 1.0f, 1.0f, 1.0f, 1.0f);
+        gl.glDepthMask(true);
+        gl.glEnable(GL_CULL_FACE);
+        gl.glDisable(GL_BLEND);
+    }
+}
@@ -0,0 +1,45 @@
+package code;
+
+//Monotonic, Double-Precision Clock Driving Every Orbit, Spin & Camera Animation
+//  getTime()     - simulated seconds since the Unix epoch, scaled by the time-warp factor
+//  getRealTime() - unwarped seconds since the clock started, used for fly-by camera timing
+public class SimulationClock {
+    private final double fixedStep;
+    private double time, realTime;
+    private double warp = 1.0;
+    private boolean paused;
+    private double pendingStep;
+
+    public SimulationClock(double epochSeconds, double fixedStep) {
+        this.fixedStep = fixedStep;
+        this.time = epochSeconds;
+    }
+
+    //Starts the simulation at the current wall-clock time, like the old currentTimeMillis() base
+    public SimulationClock() {
+        this(System.currentTimeMillis() / 1000.0, 1.0 / 120.0);
+    }
+
+    //Advances real time by realDelta and simulated time by realDelta times the warp (or by the pending
+    //step while paused). The caller measures the delta, so a fixed one gives deterministic playback.
+    public void tick(double realDelta) {
+        realTime += realDelta;
+        time += paused ? pendingStep : realDelta * warp;
+        pendingStep = 0.0;
+    }
+
+    public double getTime() { return time; }
+    public double getRealTime() { return realTime; }
+    public double getFixedStep() { return fixedStep; }
+
+    public double getWarp() { return warp; }
+    public void setWarp(double warp) { this.warp = Math.max(warp, 0.0); }
+
+    public boolean isPaused() { return paused; }
+    public void setPaused(boolean paused) { this.paused = paused; }
+
+    //While paused, advances simulated time by one fixed step on the next tick
+    public void step() {
+        if (paused) pendingStep += fixedStep;
+    }
+}
@@ -68,7 +68,7 @@ public class Sphere
 	}	}	}
 
 	public int getNumIndices() { return numIndices; }
-	public int getNumVertices() { return numIndices; }
+	public int getNumVertices() { return numVertices; }
 	public int[] getIndices() { return indices; }
 	public Vector3f[] getVertices() { return vertices; }
 	public Vector2f[] getTexCoords() { return texCoords; }
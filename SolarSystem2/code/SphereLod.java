@@ -0,0 +1,76 @@
+package code;
+
+import java.lang.Math;
+import org.joml.*;
+
+//Sphere Meshes at Several Precisions Packed Into One Vertex & Index Buffer
+public class SphereLod {
+    public static final int[] PRECISIONS = {8, 16, 32, 64, 128};
+
+    //Largest projected radius (in pixels) each level is used for; the last level has no limit
+    private static final float[] MAX_PIXEL_RADIUS = {4.0f, 16.0f, 64.0f, 240.0f};
+    //Fraction a body must cross a limit by before switching, so it doesn't pop back and forth
+    private static final float HYSTERESIS = 0.15f;
+
+    private final float[] positions, texCoords;
+    private final int[] indices;
+    private final int[] indexOffsets = new int[PRECISIONS.length];
+    private final int[] indexCounts = new int[PRECISIONS.length];
+
+    public SphereLod() {
+        Sphere[] spheres = new Sphere[PRECISIONS.length];
+        int totalVerts = 0, totalIndices = 0;
+        for (int l = 0; l < PRECISIONS.length; l++) {
+            spheres[l] = new Sphere(PRECISIONS[l]);
+            totalVerts += spheres[l].getVertices().length;
+            totalIndices += spheres[l].getIndices().length;
+        }
+
+        positions = new float[totalVerts * 3];
+        texCoords = new float[totalVerts * 2];
+        indices = new int[totalIndices];
+
+        //Indices are rebased onto the shared vertex array so no base vertex is needed at draw time
+        int vertBase = 0, indexBase = 0;
+        for (int l = 0; l < PRECISIONS.length; l++) {
+            Vector3f[] vert = spheres[l].getVertices();
+            Vector2f[] tex = spheres[l].getTexCoords();
+            int[] ind = spheres[l].getIndices();
+
+            for (int i = 0; i < vert.length; i++) {
+                positions[(vertBase + i)*3] = vert[i].x;
+                positions[(vertBase + i)*3+1] = vert[i].y;
+                positions[(vertBase + i)*3+2] = vert[i].z;
+                texCoords[(vertBase + i)*2] = tex[i].x;
+                texCoords[(vertBase + i)*2+1] = tex[i].y;
+            }
+            for (int i = 0; i < ind.length; i++) {
+                indices[indexBase + i] = vertBase + ind[i];
+            }
+
+            indexOffsets[l] = indexBase;
+            indexCounts[l] = ind.length;
+            vertBase += vert.length;
+            indexBase += ind.length;
+        }
+    }
+
+    public int getLevelCount() { return PRECISIONS.length; }
+    public int getIndexCount(int level) { return indexCounts[level]; }
+    public long getIndexByteOffset(int level) { return indexOffsets[level] * 4L; }
+    public float[] getPositions() { return positions; }
+    public float[] getTexCoords() { return texCoords; }
+    public int[] getIndices() { return indices; }
+
+    //Picks a level for the projected radius, starting from the level the body used last frame
+    public static int selectLevel(float pixelRadius, int previousLevel) {
+        int level = Math.max(previousLevel, 0);
+        while (level < MAX_PIXEL_RADIUS.length && pixelRadius > MAX_PIXEL_RADIUS[level] * (1.0f + HYSTERESIS)) {
+            level++;
+        }
+        while (level > 0 && pixelRadius < MAX_PIXEL_RADIUS[level - 1] * (1.0f - HYSTERESIS)) {
+            level--;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,75 @@
+package code;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import static com.jogamp.opengl.GL4.*;
+
+//Offline Converter From JPEG/PNG to Precompressed, Pre-Mipmapped KTX
+//  java code.TextureConverter [-size WxH] [-format bc1|bc3] image...
+//Each image is resampled to the body texture array size (or -size), mipmapped down to 1x1 and block
+//compressed; images with any transparency default to BC3, opaque ones to BC1. The .ktx is written
+//next to the source, where Code.loadTextures picks it up in place of the original.
+public class TextureConverter {
+    public static void main(String[] args) {
+        int width = Code.BODY_TEXTURE_WIDTH, height = Code.BODY_TEXTURE_HEIGHT;
+        String format = null;
+        int converted = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-size") && i + 1 < args.length) {
+                String[] size = args[++i].toLowerCase().split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (args[i].equals("-format") && i + 1 < args.length) {
+                format = args[++i].toLowerCase();
+            } else {
+                String output = toKtxName(args[i]);
+                long start = System.nanoTime();
+                KtxFile ktx = convert(args[i], width, height, format);
+                ktx.write(output);
+                System.out.printf("%s -> %s (%dx%d, %d levels, %s, %d KB) in %d ms%n",
+                    args[i], output, ktx.getWidth(), ktx.getHeight(), ktx.getLevelCount(),
+                    ktx.getInternalFormat() == GL_COMPRESSED_RGBA_S3TC_DXT5_EXT ? "BC3" : "BC1",
+                    ktx.getDataSize() / 1024, (System.nanoTime() - start) / 1000000);
+                converted++;
+            }
+        }
+        if (converted == 0) {
+            System.err.println("usage: java code.TextureConverter [-size WxH] [-format bc1|bc3] image...");
+            System.exit(1);
+        }
+    }
+
+    //planet.jpg -> planet.ktx
+    public static String toKtxName(String imageFileName) {
+        int dot = imageFileName.lastIndexOf('.');
+        int slash = imageFileName.lastIndexOf(File.separatorChar);
+        return (dot > slash ? imageFileName.substring(0, dot) : imageFileName) + ".ktx";
+    }
+
+    public static KtxFile convert(String imageFileName, int width, int height, String format) {
+        ByteBuffer decoded = Utils.decodeTextureLayer(imageFileName, width, height);
+        byte[] rgba = new byte[decoded.remaining()];
+        decoded.get(rgba);
+
+        boolean bc3 = format == null ? BlockCompressor.hasAlpha(rgba) : format.equals("bc3");
+        if (format != null && !bc3 && !format.equals("bc1")) {
+            throw new IllegalArgumentException("unsupported format '" + format + "', expected bc1 or bc3");
+        }
+
+        //Same level count glTexStorage3D gives the uncompressed array, so either can stand in for the other
+        ByteBuffer[] levels = new ByteBuffer[Utils.getMipLevelCount(width, height)];
+        int w = width, h = height;
+        for (int l = 0; l < levels.length; l++) {
+            byte[] blocks = bc3 ? BlockCompressor.compressBC3(rgba, w, h) : BlockCompressor.compressBC1(rgba, w, h);
+            levels[l] = ByteBuffer.wrap(blocks);
+            if (l + 1 < levels.length) {
+                rgba = BlockCompressor.halve(rgba, w, h);
+                w = Math.max(w / 2, 1);
+                h = Math.max(h / 2, 1);
+            }
+        }
+        return new KtxFile(bc3 ? GL_COMPRESSED_RGBA_S3TC_DXT5_EXT : GL_COMPRESSED_RGB_S3TC_DXT1_EXT,
+                           width, height, levels);
+    }
+}
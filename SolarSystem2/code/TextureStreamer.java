@@ -0,0 +1,318 @@
+package code;
+
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+//Fills the Body Texture Array in the Background
+//Worker threads decode & resample images and box-filter each one's mip chain; the GL thread copies
+//finished layers into a PBO ring and uploads every level from there within a per-frame budget, so the
+//driver copies asynchronously and only the layer that landed is touched.
+//A layer can be requested again at a higher resolution (a power-of-two multiple of the array's size)
+//while the scene runs. When the first such image lands, the array is reallocated at that size: the
+//old levels are copied in one level down, and the levels above are filled by upscaling on the GPU.
+//After that, any layer smaller than the array is uploaded to the matching lower levels and upscaled
+//the same way. A per-layer generation number drops decodes that a later request has superseded.
+//At most UPLOAD_SLOTS decoded layers are held at once; further decodes wait for one to be uploaded.
+//In compressed mode the layers are precompressed .ktx files: no decode, and their mips upload as-is.
+public class TextureStreamer {
+    private static final int UPLOAD_SLOTS = 3;
+
+    private static class DecodedLayer {
+        final int layer, generation, width, height;
+        final ByteBuffer rgba;  //every mip level, back to back
+        final KtxFile compressed;
+        DecodedLayer(int layer, int generation, int width, int height, ByteBuffer rgba, KtxFile compressed) {
+            this.layer = layer;
+            this.generation = generation;
+            this.width = width;
+            this.height = height;
+            this.rgba = rgba;
+            this.compressed = compressed;
+        }
+    }
+
+    private final int layers, maxSize;
+    private final KtxFile compressedLayout;
+    private final ExecutorService decoders;
+    private final ConcurrentLinkedQueue<DecodedLayer> decoded = new ConcurrentLinkedQueue<>();
+    private final Semaphore decodeSlots = new Semaphore(UPLOAD_SLOTS);  //released once a layer leaves decoded
+    private final AtomicInteger pending = new AtomicInteger();
+    private final boolean[] loaded;
+    private final int[] generations;   //latest request per layer; GL thread only
+    private final float[] placeholderColors;
+    private int textureArray, width, height, levels;
+    private long textureBytes;
+    private PixelUploadRing uploads;
+    private int readFramebuffer, drawFramebuffer;  //for upscaling, created on first use
+    private int loadedCount;
+
+    //Must be created on the GL thread; allocates the (empty) RGBA8 array texture
+    public TextureStreamer(int width, int height, int layers) {
+        GL4 gl = (GL4) GLContext.getCurrentGL();
+        textureArray = Utils.createTextureArray(width, height, layers);
+        int[] size = new int[2];
+        gl.glGetTexLevelParameteriv(GL_TEXTURE_2D_ARRAY, 0, GL_TEXTURE_WIDTH, size, 0);
+        gl.glGetTexLevelParameteriv(GL_TEXTURE_2D_ARRAY, 0, GL_TEXTURE_HEIGHT, size, 1);
+        this.width = size[0];
+        this.height = size[1];
+        levels = Utils.getMipLevelCount(this.width, this.height);
+        this.layers = layers;
+        gl.glGetIntegerv(GL_MAX_TEXTURE_SIZE, size, 0);
+        maxSize = size[0];
+        compressedLayout = null;
+        textureBytes = getMipChainBytes(this.width, this.height) * layers;
+        loaded = new boolean[layers];
+        generations = new int[layers];
+        placeholderColors = new float[layers * 3];
+        uploads = new PixelUploadRing(UPLOAD_SLOTS, (int) getMipChainBytes(this.width, this.height));
+        decoders = createDecoderPool();
+    }
+
+    //Must be created on the GL thread; allocates a compressed array matching the layout of every
+    //.ktx that will be requested (see KtxFile.readCommonHeader)
+    public TextureStreamer(KtxFile layout, int layers) {
+        textureArray = Utils.createTextureArray(layout.getInternalFormat(), layout.getLevelCount(),
+                                                layout.getWidth(), layout.getHeight(), layers);
+        this.width = layout.getWidth();
+        this.height = layout.getHeight();
+        levels = layout.getLevelCount();
+        this.layers = layers;
+        maxSize = Math.max(width, height);
+        compressedLayout = layout;
+        textureBytes = (long) layout.getDataSize() * layers;
+        loaded = new boolean[layers];
+        generations = new int[layers];
+        placeholderColors = new float[layers * 3];
+        uploads = new PixelUploadRing(UPLOAD_SLOTS, layout.getDataSize());
+        decoders = createDecoderPool();
+    }
+
+    private static ExecutorService createDecoderPool() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "texture-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //Queues a file for decoding at the array's size; the layer draws in its placeholder color until the
+    //upload lands. Call on the GL thread.
+    public void request(int layer, String textureFileName, float r, float g, float b) {
+        placeholderColors[layer*3] = r;
+        placeholderColors[layer*3+1] = g;
+        placeholderColors[layer*3+2] = b;
+        queue(layer, textureFileName, width, height);
+    }
+
+    //Swaps a layer's image for one decoded at width x height, e.g. a higher resolution source once
+    //startup is over. The size must be the array's times or over a power of two, and is halved to fit
+    //GL_MAX_TEXTURE_SIZE; a larger one grows the whole array when it lands. The old image stays on
+    //screen until then, and any earlier request for the layer still decoding is dropped. Call on the
+    //GL thread; RGBA arrays only, since .ktx layers bring a fixed layout.
+    public void requestResolution(int layer, String textureFileName, int width, int height) {
+        if (compressedLayout != null) {
+            throw new IllegalStateException("compressed texture arrays keep the .ktx layout");
+        }
+        if (!acceptsResolution(width, height)) {
+            throw new IllegalArgumentException(width + "x" + height + " isn't a power-of-two multiple of the "
+                                               + this.width + "x" + this.height + " array");
+        }
+        while (width > maxSize || height > maxSize) {
+            width /= 2;
+            height /= 2;
+        }
+        queue(layer, textureFileName, width, height);
+    }
+
+    //Whether requestResolution takes width x height: the array's aspect, at its size times or over a
+    //power of two
+    public boolean acceptsResolution(int width, int height) {
+        int larger = Math.max(width, this.width), smaller = Math.min(width, this.width);
+        return smaller > 0 && larger % smaller == 0 && Integer.bitCount(larger / smaller) == 1
+            && (long) width * this.height == (long) height * this.width;
+    }
+
+    private void queue(int layer, String textureFileName, int width, int height) {
+        int generation = ++generations[layer];
+        pending.incrementAndGet();
+        decoders.execute(() -> {
+            boolean queued = false;
+            decodeSlots.acquireUninterruptibly();
+            try {
+                decoded.add(compressedLayout != null
+                    ? new DecodedLayer(layer, generation, width, height, null, readCompressed(textureFileName))
+                    : new DecodedLayer(layer, generation, width, height, decodeMipChain(textureFileName, width, height), null));
+                queued = true;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                System.err.println("Texture '" + textureFileName + "' failed to load, keeping the current image: " + e);
+            } finally {
+                //Whatever went wrong, the request is over, or isComplete() would never report it
+                if (!queued) {
+                    decodeSlots.release();
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    //Called once per frame on the GL thread; uploads at least one waiting layer, then more while under
+    //budget. Stops early when every staging buffer is still in flight rather than waiting on the GPU.
+    public int uploadPending(GL4 gl, long budgetNanos) {
+        if (decoded.isEmpty()) return 0;
+        long start = System.nanoTime();
+        int uploaded = 0;
+        gl.glBindTexture(GL_TEXTURE_2D_ARRAY, textureArray);
+        DecodedLayer next;
+        while ((uploaded == 0 || System.nanoTime() - start < budgetNanos) && (next = decoded.peek()) != null) {
+            if (next.generation != generations[next.layer]) {
+                //A later request for this layer is decoding; this one would only flash up before it
+                decoded.poll();
+                decodeSlots.release();
+                pending.decrementAndGet();
+                continue;
+            }
+            if (next.width > width) grow(gl, next.width, next.height);
+            int slot = uploads.acquire(gl);
+            if (slot < 0) break;
+            decoded.poll();
+            decodeSlots.release();
+
+            ByteBuffer staging = uploads.map(gl, slot);
+            if (next.compressed != null) {
+                //Levels are packed back to back in the staging buffer, in the same order they upload
+                for (int l = 0; l < next.compressed.getLevelCount(); l++) staging.put(next.compressed.getLevel(l));
+                uploads.bindForUpload(gl, slot);
+                long offset = 0;
+                for (int l = 0; l < next.compressed.getLevelCount(); l++) {
+                    int w = Math.max(width >> l, 1), h = Math.max(height >> l, 1);
+                    int size = KtxFile.getLevelSize(next.compressed.getInternalFormat(), w, h);
+                    gl.glCompressedTexSubImage3D(GL_TEXTURE_2D_ARRAY, l, 0, 0, next.layer, w, h, 1,
+                        next.compressed.getInternalFormat(), size, offset);
+                    offset += size;
+                }
+            } else {
+                //A layer smaller than the array fills the levels of its own size, then the ones above
+                //are upscaled from its largest
+                int shift = Integer.numberOfTrailingZeros(width / next.width);
+                staging.put(next.rgba);
+                uploads.bindForUpload(gl, slot);
+                long offset = 0;
+                for (int l = shift; l < levels; l++) {
+                    int w = Math.max(width >> l, 1), h = Math.max(height >> l, 1);
+                    gl.glTexSubImage3D(GL_TEXTURE_2D_ARRAY, l, 0, 0, next.layer, w, h, 1,
+                        GL_RGBA, GL_UNSIGNED_BYTE, offset);
+                    offset += (long) w * h * 4;
+                }
+                if (shift > 0) upscale(gl, next.layer, shift);
+            }
+            uploads.release(gl, slot);
+
+            if (!loaded[next.layer]) loadedCount++;
+            loaded[next.layer] = true;
+            pending.decrementAndGet();
+            uploaded++;
+        }
+        return uploaded;
+    }
+
+    //Reallocates the array at newWidth x newHeight (a power-of-two multiple of the current size) and
+    //the staging ring to match. Every level moves down by the size ratio with glCopyImageSubData, all
+    //layers at once, and loaded layers get the new top levels upscaled from their old base level.
+    private void grow(GL4 gl, int newWidth, int newHeight) {
+        int shift = Integer.numberOfTrailingZeros(newWidth / width);
+        int newLevels = Utils.getMipLevelCount(newWidth, newHeight);
+        int grown = Utils.createTextureArray(GL_RGBA8, newLevels, newWidth, newHeight, layers);
+        for (int l = 0; l < levels; l++) {
+            int w = Math.max(width >> l, 1), h = Math.max(height >> l, 1);
+            gl.glCopyImageSubData(textureArray, GL_TEXTURE_2D_ARRAY, l, 0, 0, 0,
+                                  grown, GL_TEXTURE_2D_ARRAY, l + shift, 0, 0, 0, w, h, layers);
+        }
+        gl.glDeleteTextures(1, new int[] {textureArray}, 0);
+        textureArray = grown;
+        width = newWidth;
+        height = newHeight;
+        levels = newLevels;
+        textureBytes = getMipChainBytes(width, height) * layers;
+        for (int layer = 0; layer < layers; layer++) {
+            if (loaded[layer]) upscale(gl, layer, shift);
+        }
+        uploads.dispose(gl);
+        uploads = new PixelUploadRing(UPLOAD_SLOTS, (int) getMipChainBytes(width, height));
+        gl.glBindTexture(GL_TEXTURE_2D_ARRAY, textureArray);
+    }
+
+    //Fills levels [0, fromLevel) of one layer from level fromLevel with bilinear blits
+    private void upscale(GL4 gl, int layer, int fromLevel) {
+        int[] bindings = new int[2];
+        gl.glGetIntegerv(GL_READ_FRAMEBUFFER_BINDING, bindings, 0);
+        gl.glGetIntegerv(GL_DRAW_FRAMEBUFFER_BINDING, bindings, 1);
+        if (readFramebuffer == 0) {
+            int[] framebuffers = new int[2];
+            gl.glGenFramebuffers(2, framebuffers, 0);
+            readFramebuffer = framebuffers[0];
+            drawFramebuffer = framebuffers[1];
+        }
+        gl.glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+        gl.glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawFramebuffer);
+        gl.glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, textureArray, fromLevel, layer);
+        int sourceWidth = Math.max(width >> fromLevel, 1), sourceHeight = Math.max(height >> fromLevel, 1);
+        for (int l = 0; l < fromLevel; l++) {
+            gl.glFramebufferTextureLayer(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, textureArray, l, layer);
+            gl.glBlitFramebuffer(0, 0, sourceWidth, sourceHeight, 0, 0, Math.max(width >> l, 1), Math.max(height >> l, 1),
+                                 GL_COLOR_BUFFER_BIT, GL_LINEAR);
+        }
+        gl.glBindFramebuffer(GL_READ_FRAMEBUFFER, bindings[0]);
+        gl.glBindFramebuffer(GL_DRAW_FRAMEBUFFER, bindings[1]);
+    }
+
+    //Decodes at width x height and box-filters down to 1x1, the same chain TextureConverter builds,
+    //with the levels back to back in the order they upload. Each level is halved from the one before it
+    //inside the chain itself, so the only other copy alive is the decoded image.
+    private static ByteBuffer decodeMipChain(String textureFileName, int width, int height) {
+        ByteBuffer chain = ByteBuffer.allocate((int) getMipChainBytes(width, height));
+        chain.put(Utils.decodeTextureLayer(textureFileName, width, height));
+        byte[] levels = chain.array();
+        int from = 0, w = width, h = height;
+        for (int l = 1; l < Utils.getMipLevelCount(width, height); l++) {
+            int to = from + w * h * 4;
+            BlockCompressor.halve(levels, from, w, h, levels, to);
+            from = to;
+            w = Math.max(w / 2, 1);
+            h = Math.max(h / 2, 1);
+        }
+        chain.clear();
+        return chain;
+    }
+
+    //RGBA8 bytes of every level from width x height down to 1x1
+    private static long getMipChainBytes(int width, int height) {
+        long bytes = 0;
+        for (int l = 0; l < Utils.getMipLevelCount(width, height); l++) {
+            bytes += (long) Math.max(width >> l, 1) * Math.max(height >> l, 1) * 4;
+        }
+        return bytes;
+    }
+
+    private KtxFile readCompressed(String textureFileName) {
+        KtxFile ktx = KtxFile.read(textureFileName);
+        if (!ktx.hasSameLayout(compressedLayout)) {
+            throw new RuntimeException("'" + textureFileName + "' doesn't match the texture array's format, size or levels");
+        }
+        return ktx;
+    }
+
+    public int getTextureArray() { return textureArray; }
+    public int getLayerCount() { return layers; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public boolean isCompressed() { return compressedLayout != null; }
+    public long getTextureBytes() { return textureBytes; }
+    public int getLoadedCount() { return loadedCount; }
+    public boolean isLoaded(int layer) { return loaded[layer]; }
+    public boolean isComplete() { return pending.get() == 0; }
+    public float[] getPlaceholderColors() { return placeholderColors; }
+}
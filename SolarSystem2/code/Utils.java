@@ -20,6 +20,7 @@ import javax.imageio.ImageIO;
 import java.awt.image.*;
 import java.awt.geom.AffineTransform;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
 
 public class Utils
@@ -72,12 +73,23 @@ public class Utils
 
 	public static int createShaderProgram(String vS, String fS)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		FlightEvents.ShaderProgramEvent event = new FlightEvents.ShaderProgramEvent();
+		event.begin();
 		int vShader  = prepareShader(GL_VERTEX_SHADER, vS);
 		int fShader  = prepareShader(GL_FRAGMENT_SHADER, fS);
 		int vfprogram = gl.glCreateProgram();
 		gl.glAttachShader(vfprogram, vShader);
 		gl.glAttachShader(vfprogram, fShader);
 		finalizeProgram(vfprogram);
+		if (event.shouldCommit())
+		{	int[] linked = new int[1];
+			gl.glGetProgramiv(vfprogram, GL_LINK_STATUS, linked, 0);
+			event.vertexShader = vS;
+			event.fragmentShader = fS;
+			event.program = vfprogram;
+			event.linked = linked[0] == 1;
+			event.commit();
+		}
 		return vfprogram;
 	}
 
@@ -216,11 +228,15 @@ public class Utils
 	
 	public static int loadTexture(String textureFileName)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		FlightEvents.TextureLoadEvent event = new FlightEvents.TextureLoadEvent();
+		event.begin();
 		int finalTextureRef;
 		Texture tex = null;
 		try { tex = TextureIO.newTexture(new File(textureFileName), false); }
 		catch (Exception e) { e.printStackTrace(); }
 		finalTextureRef = tex.getTextureObject();
+		commitTextureLoad(event, textureFileName, "TextureIO", tex.getImageWidth(), tex.getImageHeight(),
+			tex.getEstimatedMemorySize());
 
 		// building a mipmap and use anisotropic filtering
 		gl.glBindTexture(GL_TEXTURE_2D, finalTextureRef);
@@ -237,8 +253,7 @@ public class Utils
 	public static int loadTextureAWT(String textureFileName)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 		BufferedImage textureImage = getBufferedImage(textureFileName);
-		byte[ ] imgRGBA = getRGBAPixelData(textureImage, true);
-		ByteBuffer rgbaBuffer = Buffers.newDirectByteBuffer(imgRGBA);
+		ByteBuffer rgbaBuffer = getRGBAPixelBuffer(textureImage, true);
 		
 		int[ ] textureIDs = new int[1];				// array to hold generated texture IDs
 		gl.glGenTextures(1, textureIDs, 0);
@@ -261,6 +276,134 @@ public class Utils
 		return textureID;
 	}
 
+	public static int loadTextureArray(String[] textureFileNames, int width, int height)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int textureID = createTextureArray(width, height, textureFileNames.length);
+		int[] size = new int[2];
+		gl.glGetTexLevelParameteriv(GL_TEXTURE_2D_ARRAY, 0, GL_TEXTURE_WIDTH, size, 0);
+		gl.glGetTexLevelParameteriv(GL_TEXTURE_2D_ARRAY, 0, GL_TEXTURE_HEIGHT, size, 1);
+
+		// every image is resampled to the shared layer size, one layer per file
+		for (int layer = 0; layer < textureFileNames.length; layer++)
+		{	ByteBuffer rgba = decodeTextureLayer(textureFileNames[layer], size[0], size[1]);
+			gl.glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, layer, size[0], size[1], 1,
+				GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+		}
+		gl.glGenerateMipmap(GL_TEXTURE_2D_ARRAY);
+		checkOpenGLError();
+		return textureID;
+	}
+
+	// allocates an empty array (left bound) with immutable storage; every layer shares one
+	// full mip chain. Layers are filled with glTexSubImage3D and mipmapped afterwards.
+	public static int createTextureArray(int width, int height, int layers)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int[] maxSize = new int[1];
+		gl.glGetIntegerv(GL_MAX_TEXTURE_SIZE, maxSize, 0);
+		while (width > maxSize[0] || height > maxSize[0])
+		{	width /= 2;
+			height /= 2;
+		}
+		return createTextureArray(GL_RGBA8, getMipLevelCount(width, height), width, height, layers);
+	}
+
+	// same, for any internal format and level count. Precompressed (BCn) layers bring their
+	// own mip chain and can't be shrunk to fit, so an oversized array is an error here.
+	public static int createTextureArray(int internalFormat, int levels, int width, int height, int layers)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int[] maxSize = new int[1];
+		int[] maxLayers = new int[1];
+		gl.glGetIntegerv(GL_MAX_TEXTURE_SIZE, maxSize, 0);
+		gl.glGetIntegerv(GL_MAX_ARRAY_TEXTURE_LAYERS, maxLayers, 0);
+		if (layers > maxLayers[0])
+		{	throw new RuntimeException("texture array needs " + layers
+				+ " layers, GL_MAX_ARRAY_TEXTURE_LAYERS is " + maxLayers[0]);
+		}
+		if (width > maxSize[0] || height > maxSize[0])
+		{	throw new RuntimeException("texture array is " + width + "x" + height
+				+ ", GL_MAX_TEXTURE_SIZE is " + maxSize[0]);
+		}
+
+		int[] textureIDs = new int[1];
+		gl.glGenTextures(1, textureIDs, 0);
+		int textureID = textureIDs[0];
+		gl.glBindTexture(GL_TEXTURE_2D_ARRAY, textureID);
+		gl.glTexStorage3D(GL_TEXTURE_2D_ARRAY, levels, internalFormat, width, height, layers);
+
+		// longitude wraps around the sphere, latitude stops at the poles
+		gl.glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT);
+		gl.glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		gl.glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+		if (gl.isExtensionAvailable("GL_EXT_texture_filter_anisotropic"))
+		{	float anisoset[] = new float[1];
+			gl.glGetFloatv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, anisoset, 0);
+			gl.glTexParameterf(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisoset[0]);
+		}
+		return textureID;
+	}
+
+	// loads a precompressed .ktx (see TextureConverter) with the mip levels stored in the file,
+	// so there is no image decode and no glGenerateMipmap at startup
+	public static int loadKtxTexture(String textureFileName)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		FlightEvents.TextureLoadEvent event = new FlightEvents.TextureLoadEvent();
+		event.begin();
+		KtxFile ktx = KtxFile.read(textureFileName);
+		int format = ktx.getInternalFormat();
+
+		int[] textureIDs = new int[1];
+		gl.glGenTextures(1, textureIDs, 0);
+		int textureID = textureIDs[0];
+		gl.glBindTexture(GL_TEXTURE_2D, textureID);
+		gl.glTexStorage2D(GL_TEXTURE_2D, ktx.getLevelCount(), format, ktx.getWidth(), ktx.getHeight());
+		for (int level = 0; level < ktx.getLevelCount(); level++)
+		{	ByteBuffer blocks = ktx.getLevel(level);
+			gl.glCompressedTexSubImage2D(GL_TEXTURE_2D, level, 0, 0,
+				Math.max(ktx.getWidth() >> level, 1), Math.max(ktx.getHeight() >> level, 1),
+				format, blocks.remaining(), blocks);
+		}
+		commitTextureLoad(event, textureFileName, "KTX", ktx.getWidth(), ktx.getHeight(), ktx.getDataSize());
+
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER,
+			ktx.getLevelCount() > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+		if (gl.isExtensionAvailable("GL_EXT_texture_filter_anisotropic"))
+		{	float anisoset[] = new float[1];
+			gl.glGetFloatv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, anisoset, 0);
+			gl.glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisoset[0]);
+		}
+		checkOpenGLError();
+		return textureID;
+	}
+
+	// decodes and resamples one array layer into RGBA bytes. Touches no GL state,
+	// so it is safe to call from worker threads.
+	public static ByteBuffer decodeTextureLayer(String textureFileName, int width, int height)
+	{	FlightEvents.TextureLoadEvent event = new FlightEvents.TextureLoadEvent();
+		event.begin();
+		BufferedImage textureImage = resampleImage(getBufferedImage(textureFileName), width, height);
+		ByteBuffer rgba = getRGBAPixelBuffer(textureImage, false);
+		commitTextureLoad(event, textureFileName, "decode layer", width, height, rgba.remaining());
+		return rgba;
+	}
+
+	private static void commitTextureLoad(FlightEvents.TextureLoadEvent event, String file, String path,
+		int width, int height, long bytes)
+	{	if (!event.shouldCommit()) return;
+		event.file = file;
+		event.path = path;
+		event.width = width;
+		event.height = height;
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	public static int getMipLevelCount(int width, int height)
+	{	int levels = 1;
+		while ((Math.max(width, height) >> levels) > 0) levels++;
+		return levels;
+	}
+
 	public static int loadCubeMap(String dirName)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 		
@@ -278,19 +421,12 @@ public class Utils
 		BufferedImage backImage = getBufferedImage(backFile);
 		BufferedImage bottomImage = getBufferedImage(bottomFile);
 		
-		byte[] topRGBA = getRGBAPixelData(topImage, false);
-		byte[] leftRGBA = getRGBAPixelData(leftImage, false);
-		byte[] frontRGBA = getRGBAPixelData(frontImage, false);
-		byte[] rightRGBA = getRGBAPixelData(rightImage, false);
-		byte[] backRGBA = getRGBAPixelData(backImage, false);
-		byte[] bottomRGBA = getRGBAPixelData(bottomImage, false);
-		
-		ByteBuffer topWrappedRGBA = ByteBuffer.wrap(topRGBA);
-		ByteBuffer leftWrappedRGBA = ByteBuffer.wrap(leftRGBA);
-		ByteBuffer frontWrappedRGBA = ByteBuffer.wrap(frontRGBA);
-		ByteBuffer rightWrappedRGBA = ByteBuffer.wrap(rightRGBA);
-		ByteBuffer backWrappedRGBA = ByteBuffer.wrap(backRGBA);
-		ByteBuffer bottomWrappedRGBA = ByteBuffer.wrap(bottomRGBA);
+		ByteBuffer topRGBA = getRGBAPixelBuffer(topImage, false);
+		ByteBuffer leftRGBA = getRGBAPixelBuffer(leftImage, false);
+		ByteBuffer frontRGBA = getRGBAPixelBuffer(frontImage, false);
+		ByteBuffer rightRGBA = getRGBAPixelBuffer(rightImage, false);
+		ByteBuffer backRGBA = getRGBAPixelBuffer(backImage, false);
+		ByteBuffer bottomRGBA = getRGBAPixelBuffer(bottomImage, false);
 
 		int[] textureIDs = new int[1];
 		gl.glGenTextures(1, textureIDs, 0);
@@ -303,17 +439,17 @@ public class Utils
 		
 		// attach the image texture to each face of the currently active OpenGL texture ID
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_X, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, rightWrappedRGBA);		
+				GL_RGBA, GL_UNSIGNED_BYTE, rightRGBA);		
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_NEGATIVE_X, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, leftWrappedRGBA);
+				GL_RGBA, GL_UNSIGNED_BYTE, leftRGBA);
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_NEGATIVE_Y, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, bottomWrappedRGBA);
+				GL_RGBA, GL_UNSIGNED_BYTE, bottomRGBA);
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_Y, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, topWrappedRGBA);
+				GL_RGBA, GL_UNSIGNED_BYTE, topRGBA);
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_Z, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, frontWrappedRGBA);
+				GL_RGBA, GL_UNSIGNED_BYTE, frontRGBA);
 		gl.glTexSubImage2D(GL_TEXTURE_CUBE_MAP_NEGATIVE_Z, 0, 0, 0, 1024, 1024,
-				GL_RGBA, GL_UNSIGNED_BYTE, backWrappedRGBA);
+				GL_RGBA, GL_UNSIGNED_BYTE, backRGBA);
 
 		gl.glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
 		gl.glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
@@ -334,7 +470,136 @@ public class Utils
 		return img;
 	}
 
-	private static byte[] getRGBAPixelData(BufferedImage img, boolean flip)
+	// halves the image with bilinear filtering until it is within 2x of the target, then scales
+	// to the exact size, so 8k sources don't alias the way a single bilinear step would
+	private static BufferedImage resampleImage(BufferedImage img, int width, int height)
+	{	BufferedImage current = img;
+		while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height)
+		{	current = drawScaled(current, current.getWidth() / 2, current.getHeight() / 2);
+		}
+		if (current.getWidth() != width || current.getHeight() != height)
+		{	current = drawScaled(current, width, height);
+		}
+		return current;
+	}
+
+	private static BufferedImage drawScaled(BufferedImage img, int width, int height)
+	{	BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(img, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	// converts straight from the source raster to tightly packed RGBA in a direct buffer, with
+	// the optional vertical flip and the channel swizzle done in one pass per row. The common
+	// ImageIO types get their own loop; anything else (indexed, premultiplied, non-sRGB...)
+	// goes through getRGB one row at a time, which still avoids a full-size intermediate image.
+	public static ByteBuffer getRGBAPixelBuffer(BufferedImage img, boolean flip)
+	{	int width = img.getWidth();
+		int height = img.getHeight();
+		ByteBuffer dest = Buffers.newDirectByteBuffer(width * height * 4);
+		byte[] row = new byte[width * 4];
+		WritableRaster raster = img.getRaster();
+		int type = img.getColorModel().getColorSpace().isCS_sRGB()
+			|| img.getType() == BufferedImage.TYPE_BYTE_GRAY ? img.getType() : BufferedImage.TYPE_CUSTOM;
+
+		switch (type)
+		{	case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			{	ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+				byte[] src = db.getData();
+				int pixelStride = sm.getPixelStride();
+				int scanlineStride = sm.getScanlineStride();
+				int base = db.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+				int[] bands = sm.getBandOffsets();	// R, G, B(, A) positions within a pixel
+				boolean hasAlpha = type == BufferedImage.TYPE_4BYTE_ABGR;
+				for (int y = 0; y < height; y++)
+				{	int s = base + y * scanlineStride;
+					for (int x = 0, d = 0; x < width; x++, s += pixelStride, d += 4)
+					{	row[d] = src[s + bands[0]];
+						row[d+1] = src[s + bands[1]];
+						row[d+2] = src[s + bands[2]];
+						row[d+3] = hasAlpha ? src[s + bands[3]] : (byte) 255;
+					}
+					putRow(dest, row, flip ? height - 1 - y : y);
+				}
+				break;
+			}
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_BGR:
+			{	SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+				DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+				int[] src = db.getData();
+				int scanlineStride = sm.getScanlineStride();
+				int base = db.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX();
+				int alphaMask = type == BufferedImage.TYPE_INT_ARGB ? 0 : 0xFF000000;
+				boolean bgr = type == BufferedImage.TYPE_INT_BGR;
+				for (int y = 0; y < height; y++)
+				{	int s = base + y * scanlineStride;
+					for (int x = 0, d = 0; x < width; x++, d += 4)
+					{	int argb = src[s + x] | alphaMask;
+						row[d] = (byte) (bgr ? argb : argb >> 16);
+						row[d+1] = (byte) (argb >> 8);
+						row[d+2] = (byte) (bgr ? argb >> 16 : argb);
+						row[d+3] = (byte) (argb >>> 24);
+					}
+					putRow(dest, row, flip ? height - 1 - y : y);
+				}
+				break;
+			}
+			case BufferedImage.TYPE_BYTE_GRAY:	// replicated like the Graphics2D path, no gamma change
+			{	ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+				byte[] src = db.getData();
+				int scanlineStride = sm.getScanlineStride();
+				int base = db.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX();
+				for (int y = 0; y < height; y++)
+				{	int s = base + y * scanlineStride;
+					for (int x = 0, d = 0; x < width; x++, d += 4)
+					{	byte gray = src[s + x];
+						row[d] = gray;
+						row[d+1] = gray;
+						row[d+2] = gray;
+						row[d+3] = (byte) 255;
+					}
+					putRow(dest, row, flip ? height - 1 - y : y);
+				}
+				break;
+			}
+			default:
+			{	int[] argbRow = new int[width];
+				for (int y = 0; y < height; y++)
+				{	img.getRGB(0, y, width, 1, argbRow, 0, width);
+					for (int x = 0, d = 0; x < width; x++, d += 4)
+					{	int argb = argbRow[x];
+						row[d] = (byte) (argb >> 16);
+						row[d+1] = (byte) (argb >> 8);
+						row[d+2] = (byte) argb;
+						row[d+3] = (byte) (argb >>> 24);
+					}
+					putRow(dest, row, flip ? height - 1 - y : y);
+				}
+			}
+		}
+		dest.rewind();
+		return dest;
+	}
+
+	private static void putRow(ByteBuffer dest, byte[] row, int y)
+	{	dest.position(y * row.length);
+		dest.put(row);
+	}
+
+	// the original Graphics2D conversion, kept as the reference PixelConversionCheck
+	// compares getRGBAPixelBuffer against
+	static byte[] getRGBAPixelData(BufferedImage img, boolean flip)
 	{	int height = img.getHeight(null);
 		int width = img.getWidth(null);
 
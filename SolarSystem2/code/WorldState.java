@@ -0,0 +1,71 @@
+package code;
+
+import org.joml.Vector3f;
+
+//Everything the Renderer Needs From One Simulation Step
+//Written by the simulation (Code.simulate) into SimulationThread's buffers and only read after it's
+//published; the renderer blends two of them into its own instance with interpolate().
+public class WorldState {
+    double gt;
+    int stage;
+    boolean topDown, scaled, settled;
+    float cameraX, cameraY, cameraZ;
+    float lookAtX, lookAtY, lookAtZ;
+    float starX, starY, starZ, prevX, prevY, prevZ;
+    boolean drawStar;
+    long inputCommands, inputEventNanos;  //commands applied so far, and the latest one's event time
+    final BodyStateUpdater.Snapshot bodies;
+
+    public WorldState(BodyStateUpdater.Snapshot bodies) {
+        this.bodies = bodies;
+    }
+
+    void copyFrom(WorldState o) {
+        copyDiscrete(o);
+        gt = o.gt;
+        cameraX = o.cameraX; cameraY = o.cameraY; cameraZ = o.cameraZ;
+        lookAtX = o.lookAtX; lookAtY = o.lookAtY; lookAtZ = o.lookAtZ;
+        starX = o.starX; starY = o.starY; starZ = o.starZ;
+        prevX = o.prevX; prevY = o.prevY; prevZ = o.prevZ;
+        bodies.copyFrom(o.bodies);
+    }
+
+    //Continuous values blended from a (alpha = 0) to b (alpha = 1), discrete ones taken from b.
+    //A stage or view change between the two is a cut, so b is used as is rather than swept toward.
+    void interpolate(WorldState a, WorldState b, float alpha) {
+        if (a.stage != b.stage || a.topDown != b.topDown || a.scaled != b.scaled) {
+            copyFrom(b);
+            return;
+        }
+        copyDiscrete(b);
+        gt = a.gt + (b.gt - a.gt) * alpha;
+        cameraX = Code.lerp(a.cameraX, b.cameraX, alpha);
+        cameraY = Code.lerp(a.cameraY, b.cameraY, alpha);
+        cameraZ = Code.lerp(a.cameraZ, b.cameraZ, alpha);
+        lookAtX = Code.lerp(a.lookAtX, b.lookAtX, alpha);
+        lookAtY = Code.lerp(a.lookAtY, b.lookAtY, alpha);
+        lookAtZ = Code.lerp(a.lookAtZ, b.lookAtZ, alpha);
+        starX = Code.lerp(a.starX, b.starX, alpha);
+        starY = Code.lerp(a.starY, b.starY, alpha);
+        starZ = Code.lerp(a.starZ, b.starZ, alpha);
+        prevX = Code.lerp(a.prevX, b.prevX, alpha);
+        prevY = Code.lerp(a.prevY, b.prevY, alpha);
+        prevZ = Code.lerp(a.prevZ, b.prevZ, alpha);
+        bodies.interpolate(a.bodies, b.bodies, alpha);
+    }
+
+    private void copyDiscrete(WorldState o) {
+        stage = o.stage;
+        topDown = o.topDown;
+        scaled = o.scaled;
+        settled = o.settled;
+        drawStar = o.drawStar;
+        inputCommands = o.inputCommands;
+        inputEventNanos = o.inputEventNanos;
+    }
+
+    Vector3f getBodyPosition(int body, Vector3f dest) {
+        int o = body * 3;
+        return dest.set((float)bodies.positions[o], (float)bodies.positions[o + 1], (float)bodies.positions[o + 2]);
+    }
+}
@@ -1,14 +1,29 @@
 #version 430
 in vec2 tc;
+flat in float layer;
+flat in vec3 placeholder;
+flat in int bodyInstance;
 out vec4 color;
 
 uniform vec4 tintColor = vec4(1.0, 1.0, 1.0, 1.0);
 uniform sampler2D s;
+uniform sampler2DArray bodyTextures;
 uniform bool useTexture = true;
 
 void main(void)
 {
-    if (useTexture)
+    if (bodyInstance >= 2)
+    {
+        //Round point sprite, flat colored (minor bodies) or from the ring texture (ring particles)
+        vec2 d = gl_PointCoord - vec2(0.5);
+        if (dot(d, d) > 0.25) discard;
+        color = (bodyInstance == 3 ? texture(s, tc) : vec4(placeholder, 1.0)) * tintColor;
+    }
+    else if (bodyInstance == 1 && layer >= 0.0)
+        color = texture(bodyTextures, vec3(tc, layer)) * tintColor;
+    else if (bodyInstance == 1)
+        color = vec4(placeholder, 1.0) * tintColor;
+    else if (useTexture)
         color = texture(s, tc) * tintColor;
     else
         color = tintColor;
@@ -1,13 +1,90 @@
 #version 430
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec2 tex_coord;
+layout (location = 2) in mat4 inst_matrix;
+layout (location = 6) in float inst_layer;
+layout (location = 7) in vec3 inst_color;
+layout (location = 8) in vec4 orbit_a;
+layout (location = 9) in vec4 orbit_b;
+layout (location = 10) in dvec2 orbit_phase;
 out vec2 tc;
+flat out float layer;
+flat out vec3 placeholder;
+flat out int bodyInstance;
 
 uniform mat4 mv_matrix;
 uniform mat4 p_matrix;
+uniform bool instanced = false;
+
+//Minor bodies (AsteroidRenderer): one point per orbit, A.xyz & e in orbit_a, B.xyz in orbit_b, mean
+//anomaly at asteroid_time 0 & mean motion in orbit_phase; position = A (cos E - e) + B sin E. The
+//phase is summed in double, since mean motion times a long time offset is far beyond float precision
+uniform bool asteroids = false;
+uniform double asteroid_time;
+uniform float point_size = 1.0;
+uniform int radial_knot_count = 0;
+uniform vec2 radial_knots[16];
+//Ring particles (RingRenderer): when x < y, the point takes its color from texture s at
+//u = (a - x) / (y - x), the same radial strip the ring's annulus is drawn with
+uniform vec2 point_tex_range = vec2(0.0);
+
+const float PI = 3.14159265;
+const double INV_TWO_PI = 0.15915494309189535lf;
+
+//Eccentric anomaly for a mean anomaly in [-pi, pi], Newton's method from KeplerPropagator's start
+float solveKepler(float m, float e)
+{	float E = (e < 0.8) ? m + e * sin(m) * (1.0 + e * cos(m)) : (m < 0.0 ? -PI : PI);
+	for (int i = 0; i < 8; i++)
+	{	float d = (E - e * sin(E) - m) / (1.0 - e * cos(E));
+		E -= d;
+		if (abs(d) < 1e-5) break;
+	}
+	return E;
+}
+
+//Scale for an orbit with semi-major axis a, interpolated between the (axis, scale) knots
+float radialScale(float a)
+{	if (radial_knot_count == 0) return 1.0;
+	if (a <= radial_knots[0].x) return radial_knots[0].y;
+	for (int i = 1; i < radial_knot_count; i++)
+	{	if (a < radial_knots[i].x)
+		{	float t = (a - radial_knots[i-1].x) / (radial_knots[i].x - radial_knots[i-1].x);
+			return mix(radial_knots[i-1].y, radial_knots[i].y, t);
+		}
+	}
+	return radial_knots[radial_knot_count-1].y;
+}
 
 void main(void)
 {
-	gl_Position = p_matrix * mv_matrix * vec4(position, 1.0);
 	tc = tex_coord;
+	if (asteroids)
+	{	float e = orbit_a.w;
+		double turns = (orbit_phase.x + orbit_phase.y * asteroid_time) * INV_TWO_PI;
+		float m = mod(float(turns - floor(turns)) * 2.0 * PI + PI, 2.0 * PI) - PI;
+		float E = solveKepler(m, e);
+		float a = length(orbit_a.xyz);
+		vec3 p = (orbit_a.xyz * (cos(E) - e) + orbit_b.xyz * sin(E)) * radialScale(a);
+		gl_Position = p_matrix * mv_matrix * vec4(p, 1.0);
+		gl_PointSize = point_size;
+		layer = -1.0;
+		placeholder = vec3(0.62, 0.58, 0.52);
+		bodyInstance = 2;
+		if (point_tex_range.x < point_tex_range.y)
+		{	tc = vec2((a - point_tex_range.x) / (point_tex_range.y - point_tex_range.x), 0.5);
+			bodyInstance = 3;
+		}
+	}
+	else if (instanced)
+	{	gl_Position = p_matrix * mv_matrix * inst_matrix * vec4(position, 1.0);
+		layer = inst_layer;
+		placeholder = inst_color;
+		bodyInstance = 1;
+	}
+	else
+	{	gl_Position = p_matrix * mv_matrix * vec4(position, 1.0);
+		layer = -1.0;
+		placeholder = vec3(1.0);
+		bodyInstance = 0;
+	}
 }
\ No newline at end of file
@@ -1 +1 @@
-javac code/Code.java
\ No newline at end of file
+javac --add-modules jdk.incubator.vector code/Code.java
\ No newline at end of file
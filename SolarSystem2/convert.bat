@@ -0,0 +1 @@
+java -Djava.awt.headless=true code.TextureConverter %*
@@ -0,0 +1,6 @@
+#!/bin/sh
+# Offscreen benchmark tour, e.g. on a CI box without a display:
+#   xvfb-run -a -s "-screen 0 1280x720x24" ./headless.sh --max-p95 20 --max-p99 33
+# Exits 1 when a --max-p95/--max-p99 budget is exceeded.
+cd "$(dirname "$0")" || exit 2
+exec java --add-modules jdk.incubator.vector --add-exports java.base/java.lang=ALL-UNNAMED --add-exports java.desktop/sun.awt=ALL-UNNAMED --add-exports java.desktop/sun.java2d=ALL-UNNAMED -Dsun.java2d.d3d=false -Dsun.java2d.uiScale=1 code.Code --headless "$@"